@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads the remaining bytes of a
+ * {@link ByteBuffer} without copying them upfront.
+ * <p>
+ * The stream works on a duplicate of the buffer, so the position and limit of
+ * the original buffer are not modified. Used by the <code>verify</code>
+ * overloads of {@link Verifier}.
+ */
+final class ByteBufferInputStream extends InputStream
+{
+  private final ByteBuffer m_aBuffer;
+
+  /**
+   * @param buffer
+   *        the buffer to read. Its remaining bytes are the content of this
+   *        stream. May not be <code>null</code>.
+   */
+  ByteBufferInputStream (final ByteBuffer buffer)
+  {
+    m_aBuffer = buffer.duplicate ();
+  }
+
+  @Override
+  public int read ()
+  {
+    return m_aBuffer.hasRemaining () ? m_aBuffer.get () & 0xff : -1;
+  }
+
+  @Override
+  public int read (final byte [] b, final int off, final int len)
+  {
+    if (len == 0)
+      return 0;
+    final int n = Math.min (len, m_aBuffer.remaining ());
+    if (n == 0)
+      return -1;
+    m_aBuffer.get (b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip (final long n)
+  {
+    final int skipped = (int) Math.max (0, Math.min (n, m_aBuffer.remaining ()));
+    m_aBuffer.position (m_aBuffer.position () + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available ()
+  {
+    return m_aBuffer.remaining ();
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe map with least-recently-used eviction, used by
+ * {@link SchemaCache} and by the validation result cache.
+ * <p>
+ * Lookups go through a {@link ConcurrentHashMap} so that many threads can hit
+ * the cache at the same time without locking; a hit only updates a logical
+ * access time. When the cache grows beyond its maximum size, the least
+ * recently used entries are evicted in one go down to 90% of the maximum size,
+ * so that the scan over the entries is only necessary after many further
+ * insertions. Entries older than the optional time to live are treated as
+ * missing.
+ *
+ * @param <K>
+ *        the key type
+ * @param <V>
+ *        the value type
+ */
+public class ConcurrentLRUCache <K, V>
+{
+  private static final class Entry <V>
+  {
+    private final V m_aValue;
+    private final long m_nCreationNanos;
+    private volatile long m_nLastAccess;
+
+    Entry (final V value, final long creationNanos, final long lastAccess)
+    {
+      m_aValue = value;
+      m_nCreationNanos = creationNanos;
+      m_nLastAccess = lastAccess;
+    }
+  }
+
+  private final int m_nMaxSize;
+  private final int m_nLowWaterMark;
+  private final long m_nTTLNanos;
+  private final Map <K, Entry <V>> m_aMap = new ConcurrentHashMap <> ();
+  private final AtomicLong m_aClock = new AtomicLong ();
+  private final AtomicLong m_aHits = new AtomicLong ();
+  private final AtomicLong m_aMisses = new AtomicLong ();
+  private final AtomicLong m_aEvictions = new AtomicLong ();
+  private final AtomicLong m_aExpirations = new AtomicLong ();
+
+  /**
+   * @param maxSize
+   *        maximum number of entries kept in this cache. Must be &gt; 0.
+   */
+  public ConcurrentLRUCache (final int maxSize)
+  {
+    this (maxSize, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param maxSize
+   *        maximum number of entries kept in this cache. Must be &gt; 0.
+   * @param ttl
+   *        the time an entry stays valid. A value &le; 0 means forever.
+   * @param unit
+   *        the unit of <code>ttl</code>.
+   */
+  public ConcurrentLRUCache (final int maxSize, final long ttl, final TimeUnit unit)
+  {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException ("maxSize must be > 0: " + maxSize);
+    m_nMaxSize = maxSize;
+    m_nLowWaterMark = Math.max (1, maxSize * 9 / 10);
+    m_nTTLNanos = ttl <= 0 ? 0 : unit.toNanos (ttl);
+  }
+
+  /**
+   * @return the maximum number of entries kept in this cache.
+   */
+  public int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * @return the number of entries currently in this cache, including expired
+   *         ones that were not yet removed.
+   */
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  private boolean _isExpired (final Entry <V> entry, final long now)
+  {
+    return m_nTTLNanos > 0 && now - entry.m_nCreationNanos > m_nTTLNanos;
+  }
+
+  /**
+   * looks up a cached value.
+   *
+   * @param key
+   *        the key. May be <code>null</code>.
+   * @return <code>null</code> if no value is cached under the given key.
+   */
+  public V get (final K key)
+  {
+    final Entry <V> entry = key == null ? null : m_aMap.get (key);
+    if (entry == null)
+    {
+      m_aMisses.incrementAndGet ();
+      return null;
+    }
+    if (_isExpired (entry, System.nanoTime ()))
+    {
+      if (m_aMap.remove (key, entry))
+        m_aExpirations.incrementAndGet ();
+      m_aMisses.incrementAndGet ();
+      return null;
+    }
+    entry.m_nLastAccess = m_aClock.incrementAndGet ();
+    m_aHits.incrementAndGet ();
+    return entry.m_aValue;
+  }
+
+  /**
+   * puts a value into the cache, evicting the least recently used entries if
+   * the cache is full.
+   *
+   * @param key
+   *        the key. May not be <code>null</code>.
+   * @param value
+   *        the value. May not be <code>null</code>.
+   */
+  public void put (final K key, final V value)
+  {
+    if (key == null)
+      throw new IllegalArgumentException ("key");
+    if (value == null)
+      throw new IllegalArgumentException ("value");
+
+    m_aMap.put (key, new Entry <> (value, System.nanoTime (), m_aClock.incrementAndGet ()));
+    if (m_aMap.size () > m_nMaxSize)
+      _evict ();
+  }
+
+  private void _evict ()
+  {
+    synchronized (m_aMap)
+    {
+      if (m_aMap.size () <= m_nMaxSize)
+        return;
+
+      // first drop all expired entries
+      if (m_nTTLNanos > 0)
+      {
+        final long now = System.nanoTime ();
+        for (final Iterator <Entry <V>> it = m_aMap.values ().iterator (); it.hasNext ();)
+          if (_isExpired (it.next (), now))
+          {
+            it.remove ();
+            m_aExpirations.incrementAndGet ();
+          }
+      }
+
+      final int excess = m_aMap.size () - m_nLowWaterMark;
+      if (excess <= 0)
+        return;
+      final long [] ticks = new long [m_aMap.size ()];
+      int n = 0;
+      for (final Entry <V> entry : m_aMap.values ())
+        if (n < ticks.length)
+          ticks[n++] = entry.m_nLastAccess;
+      if (n == 0)
+        return;
+      Arrays.sort (ticks, 0, n);
+      final long cutoff = ticks[Math.min (excess, n) - 1];
+      for (final Iterator <Entry <V>> it = m_aMap.values ().iterator (); it.hasNext ();)
+        if (it.next ().m_nLastAccess <= cutoff)
+        {
+          it.remove ();
+          m_aEvictions.incrementAndGet ();
+        }
+    }
+  }
+
+  /**
+   * removes a single entry from the cache.
+   *
+   * @param key
+   *        the key. May be <code>null</code>.
+   */
+  public void remove (final K key)
+  {
+    if (key != null)
+      m_aMap.remove (key);
+  }
+
+  /**
+   * removes all entries. The statistics counters are not reset.
+   */
+  public void clear ()
+  {
+    m_aMap.clear ();
+  }
+
+  /**
+   * @return the number of lookups that found a cached value.
+   */
+  public long getHitCount ()
+  {
+    return m_aHits.get ();
+  }
+
+  /**
+   * @return the number of lookups that did not find a cached value.
+   */
+  public long getMissCount ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return the number of entries that were evicted because the cache was
+   *         full.
+   */
+  public long getEvictionCount ()
+  {
+    return m_aEvictions.get ();
+  }
+
+  /**
+   * @return the number of entries that were removed because they expired.
+   */
+  public long getExpirationCount ()
+  {
+    return m_aExpirations.get ();
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Creates string keys that identify the content of a schema or document, e.g.
+ * for {@link SchemaCache}, for the validation result cache, or as the source
+ * token of a schema snapshot.
+ * <p>
+ * Digest keys are a SHA-256 digest over the content plus the system ID, so
+ * that nobody can craft content whose key collides with the key of other
+ * content.
+ */
+public final class ContentDigest
+{
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private ContentDigest ()
+  {}
+
+  /**
+   * creates a cache key from the system ID of an input source.
+   *
+   * @return <code>null</code> if the input source has no system ID, in which
+   *         case the schema can not be cached.
+   */
+  public static String createSystemIdKey (final InputSource is)
+  {
+    final String systemId = is.getSystemId ();
+    return systemId == null ? null : "sid:" + systemId;
+  }
+
+  /**
+   * creates a cache key from the content of an input source.
+   * <p>
+   * If the input source carries a byte stream or a character stream, the
+   * stream is read completely, closed, and replaced by an in-memory copy, so
+   * that the input source can still be compiled afterwards. The system ID (if any) is
+   * part of the key, because relative references inside the schema are
+   * resolved against it.
+   * <p>
+   * If the input source carries neither a byte stream nor a character stream,
+   * the system ID key is returned.
+   *
+   * @return <code>null</code> if the input source can not be cached.
+   */
+  public static String createDigestKey (final InputSource is) throws IOException
+  {
+    final MessageDigest md = _createDigest ();
+
+    final InputStream stream = is.getByteStream ();
+    final Reader reader = is.getCharacterStream ();
+    if (reader != null)
+    {
+      final CharArrayWriter w = new CharArrayWriter ();
+      try (final Reader r = reader)
+      {
+        final char [] buf = new char [4096];
+        int n;
+        while ((n = r.read (buf)) >= 0)
+          w.write (buf, 0, n);
+      }
+      final char [] chars = w.toCharArray ();
+      md.update (new String (chars).getBytes (StandardCharsets.UTF_8));
+      is.setCharacterStream (new CharArrayReader (chars));
+    }
+    else
+      if (stream != null)
+      {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        try (final InputStream in = stream)
+        {
+          final byte [] buf = new byte [4096];
+          int n;
+          while ((n = in.read (buf)) >= 0)
+            bos.write (buf, 0, n);
+        }
+        final byte [] bytes = bos.toByteArray ();
+        md.update (bytes);
+        is.setByteStream (new ByteArrayInputStream (bytes));
+      }
+      else
+        return createSystemIdKey (is);
+
+    return _createKey (md, is.getSystemId ());
+  }
+
+  /**
+   * creates a cache key from the content of a byte array, in the same format
+   * as {@link #createDigestKey(InputSource)}.
+   *
+   * @param bytes
+   *        the bytes of the content
+   * @param offset
+   *        the index of the first byte of the content
+   * @param length
+   *        the number of bytes of the content
+   * @param systemId
+   *        the system ID of the content. May be <code>null</code>.
+   * @return the key. Never <code>null</code>.
+   */
+  public static String createDigestKey (final byte [] bytes,
+                                        final int offset,
+                                        final int length,
+                                        final String systemId)
+  {
+    final MessageDigest md = _createDigest ();
+    md.update (bytes, offset, length);
+    return _createKey (md, systemId);
+  }
+
+  private static MessageDigest _createDigest ()
+  {
+    try
+    {
+      return MessageDigest.getInstance (DIGEST_ALGORITHM);
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException (ex);
+    }
+  }
+
+  private static String _createKey (final MessageDigest md, final String systemId)
+  {
+    final StringBuilder sb = new StringBuilder ("sha256:");
+    for (final byte b : md.digest ())
+    {
+      sb.append (Character.forDigit ((b >> 4) & 0xf, 16));
+      sb.append (Character.forDigit (b & 0xf, 16));
+    }
+    if (systemId != null)
+      sb.append ('@').append (systemId);
+    return sb.toString ();
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link InputStream} that reads a file through memory mappings of at most
+ * {@link #MAX_WINDOW_SIZE} bytes each, so that files larger than the 2 GiB
+ * limit of a single {@link MappedByteBuffer} can be mapped as well.
+ * <p>
+ * The windows are mapped one after the other as the stream is read. The
+ * channel is not closed by this stream. Used by
+ * {@link Verifier#verify(java.nio.file.Path, long)}.
+ */
+final class MappedFileInputStream extends InputStream
+{
+  /** The maximum size of one mapping */
+  static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+  private final FileChannel m_aChannel;
+  private final long m_nSize;
+  private final int m_nWindowSize;
+  /** the file position of the first byte after the current window */
+  private long m_nWindowEnd;
+  private MappedByteBuffer m_aWindow;
+
+  /**
+   * @param channel
+   *        the channel to read. May not be <code>null</code>.
+   * @param size
+   *        the number of bytes to read from the start of the channel.
+   * @param windowSize
+   *        the maximum size of one mapping. Must be positive.
+   */
+  MappedFileInputStream (final FileChannel channel, final long size, final int windowSize)
+  {
+    m_aChannel = channel;
+    m_nSize = size;
+    m_nWindowSize = windowSize;
+  }
+
+  /**
+   * @return <code>false</code> if the end of the file was reached.
+   */
+  private boolean _ensureWindow () throws IOException
+  {
+    if (m_aWindow != null && m_aWindow.hasRemaining ())
+      return true;
+    if (m_nWindowEnd >= m_nSize)
+      return false;
+    final long length = Math.min (m_nWindowSize, m_nSize - m_nWindowEnd);
+    // the previous window is released by the garbage collector
+    m_aWindow = m_aChannel.map (FileChannel.MapMode.READ_ONLY, m_nWindowEnd, length);
+    m_nWindowEnd += length;
+    return true;
+  }
+
+  @Override
+  public int read () throws IOException
+  {
+    return _ensureWindow () ? m_aWindow.get () & 0xff : -1;
+  }
+
+  @Override
+  public int read (final byte [] b, final int off, final int len) throws IOException
+  {
+    if (len == 0)
+      return 0;
+    if (!_ensureWindow ())
+      return -1;
+    final int n = Math.min (len, m_aWindow.remaining ());
+    m_aWindow.get (b, off, n);
+    return n;
+  }
+
+  @Override
+  public long skip (final long n) throws IOException
+  {
+    long skipped = 0;
+    while (skipped < n && _ensureWindow ())
+    {
+      final int step = (int) Math.min (n - skipped, m_aWindow.remaining ());
+      m_aWindow.position (m_aWindow.position () + step);
+      skipped += step;
+    }
+    return skipped;
+  }
+
+  @Override
+  public int available ()
+  {
+    final long remaining = m_nSize - m_nWindowEnd + (m_aWindow == null ? 0 : m_aWindow.remaining ());
+    return (int) Math.min (remaining, Integer.MAX_VALUE);
+  }
+}
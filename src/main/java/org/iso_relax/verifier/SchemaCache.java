@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A bounded, thread-safe cache of compiled {@link Schema} objects.
+ * <p>
+ * Lookups do not lock, so that many threads can hit the cache at the same
+ * time. When the cache grows beyond its maximum size, the least recently used
+ * entries are evicted (see {@link ConcurrentLRUCache}).
+ * <p>
+ * Keys are created from an {@link InputSource} either by its system ID (see
+ * {@link ContentDigest#createSystemIdKey(InputSource)}) or by a digest over its
+ * content (see {@link ContentDigest#createDigestKey(InputSource)}).
+ */
+public class SchemaCache
+{
+  /** The default maximum number of cached schemas */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private final ConcurrentLRUCache <String, Schema> m_aCache;
+
+  public SchemaCache ()
+  {
+    this (DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * @param maxSize
+   *        maximum number of schemas kept in this cache. Must be &gt; 0.
+   */
+  public SchemaCache (final int maxSize)
+  {
+    m_aCache = new ConcurrentLRUCache <> (maxSize);
+  }
+
+  /**
+   * @return the maximum number of schemas kept in this cache.
+   */
+  public int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return the number of schemas currently in this cache.
+   */
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * looks up a cached schema.
+   *
+   * @param key
+   *        the cache key. May be <code>null</code>.
+   * @return <code>null</code> if no schema is cached under the given key.
+   */
+  public Schema get (final String key)
+  {
+    return m_aCache.get (key);
+  }
+
+  /**
+   * puts a schema into the cache, evicting the least recently used entries if
+   * the cache is full.
+   *
+   * @param key
+   *        the cache key. May not be <code>null</code>.
+   * @param schema
+   *        the compiled schema. May not be <code>null</code>.
+   */
+  public void put (final String key, final Schema schema)
+  {
+    if (key == null)
+      throw new IllegalArgumentException ("key");
+    if (schema == null)
+      throw new IllegalArgumentException ("schema");
+
+    m_aCache.put (key, schema);
+  }
+
+  /**
+   * removes a single schema from the cache.
+   *
+   * @param key
+   *        the cache key. May be <code>null</code>.
+   */
+  public void remove (final String key)
+  {
+    m_aCache.remove (key);
+  }
+
+  /**
+   * removes all cached schemas. The statistics counters are not reset.
+   */
+  public void clear ()
+  {
+    m_aCache.clear ();
+  }
+
+  /**
+   * @return the number of lookups that found a cached schema.
+   */
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount ();
+  }
+
+  /**
+   * @return the number of lookups that did not find a cached schema.
+   */
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  /**
+   * @return the number of schemas that were evicted because the cache was full.
+   */
+  public long getEvictionCount ()
+  {
+    return m_aCache.getEvictionCount ();
+  }
+}
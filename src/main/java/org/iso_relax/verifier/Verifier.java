@@ -19,8 +19,16 @@
  */
 package org.iso_relax.verifier;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.w3c.dom.Node;
 import org.xml.sax.EntityResolver;
@@ -74,6 +82,13 @@ public interface Verifier
   @Deprecated
   String FEATURE_FILTER = "http://www.iso-relax.org/verifier/filter";
 
+  /**
+   * files of at least this size (in bytes) are memory mapped by
+   * {@link #verify(Path)} instead of being read through a buffered stream. Use
+   * {@link #verify(Path, long)} for a different threshold.
+   */
+  long DEFAULT_MEMORY_MAP_THRESHOLD = 4L * 1024 * 1024;
+
   /**
    * Checks whether a feature is supported or not.
    * <p>
@@ -172,6 +187,90 @@ public interface Verifier
    */
   boolean verify (File file) throws SAXException, IOException;
 
+  /**
+   * validates an XML document.
+   * <p>
+   * Files of at least {@link #DEFAULT_MEMORY_MAP_THRESHOLD} bytes are memory
+   * mapped, see {@link #verify(Path, long)}.
+   *
+   * @param path
+   *        Path of the file to be validated
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  default boolean verify (final Path path) throws SAXException, IOException
+  {
+    return verify (path, DEFAULT_MEMORY_MAP_THRESHOLD);
+  }
+
+  /**
+   * validates an XML document.
+   * <p>
+   * The file is opened through a {@link FileChannel}. Files of at least
+   * <code>memoryMapThreshold</code> bytes are memory mapped, all others are
+   * read through a buffered stream. Files larger than 2 GiB are mapped in
+   * consecutive windows of at most 2 GiB each. The system ID is set to the URI of the
+   * file, so relative entity references are resolved correctly.
+   * <p>
+   * Note that a memory mapping is only released when it is garbage collected.
+   *
+   * @param path
+   *        Path of the file to be validated
+   * @param memoryMapThreshold
+   *        the minimum file size in bytes for memory mapping. Use
+   *        {@link Long#MAX_VALUE} to never map a file.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  default boolean verify (final Path path, final long memoryMapThreshold) throws SAXException, IOException
+  {
+    try (final FileChannel channel = FileChannel.open (path, StandardOpenOption.READ))
+    {
+      final long size = channel.size ();
+      final InputStream is;
+      if (size >= memoryMapThreshold)
+        is = new MappedFileInputStream (channel, size, MappedFileInputStream.MAX_WINDOW_SIZE);
+      else
+        is = new BufferedInputStream (Channels.newInputStream (channel), 64 * 1024);
+
+      final InputSource source = new InputSource (is);
+      source.setSystemId (path.toAbsolutePath ().toUri ().toString ());
+      return verify (source);
+    }
+  }
+
+  /**
+   * validates an XML document that is held in a byte array. The bytes are
+   * parsed in place without being copied.
+   *
+   * @param bytes
+   *        the bytes of the document
+   * @param offset
+   *        the index of the first byte of the document
+   * @param length
+   *        the number of bytes of the document
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  default boolean verify (final byte [] bytes, final int offset, final int length) throws SAXException, IOException
+  {
+    return verify (new InputSource (new ByteArrayInputStream (bytes, offset, length)));
+  }
+
+  /**
+   * validates an XML document that is held in the remaining bytes of a
+   * buffer. The bytes of a heap buffer are parsed in place, the bytes of a
+   * direct buffer are read in chunks as the parser needs them. The position of
+   * the buffer is not modified.
+   *
+   * @param buffer
+   *        the buffer with the document
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  default boolean verify (final ByteBuffer buffer) throws SAXException, IOException
+  {
+    if (buffer.hasArray ())
+      return verify (buffer.array (), buffer.arrayOffset () + buffer.position (), buffer.remaining ());
+    return verify (new InputSource (new ByteBufferInputStream (buffer)));
+  }
+
   /**
    * validates an XML document.
    * <p>
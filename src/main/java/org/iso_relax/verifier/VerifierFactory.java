@@ -22,7 +22,18 @@ package org.iso_relax.verifier;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ServiceLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
@@ -39,7 +50,61 @@ import org.xml.sax.SAXNotRecognizedException;
  */
 public abstract class VerifierFactory
 {
+  /**
+   * a feature that enables or disables the compiled schema cache. If enabled,
+   * schemas compiled through the convenience methods and through
+   * {@link #compileSchemaCached(InputSource)} are cached by their system ID.
+   * Disabled by default.
+   */
+  public static final String FEATURE_SCHEMA_CACHE = "http://www.iso-relax.org/verifier/factory/schema-cache";
+
+  /**
+   * a feature that makes the compiled schema cache use a digest over the
+   * schema content (plus the system ID) as the cache key instead of the system
+   * ID only. Disabled by default.
+   */
+  public static final String FEATURE_SCHEMA_CACHE_DIGEST = "http://www.iso-relax.org/verifier/factory/schema-cache-digest";
+
+  /**
+   * an {@link Integer} property with the maximum number of cached schemas.
+   * Setting a value &gt; 0 enables the cache, setting 0 disables it.
+   */
+  public static final String PROPERTY_SCHEMA_CACHE_SIZE = "http://www.iso-relax.org/verifier/factory/schema-cache-size";
+
+  /** a read-only {@link Long} property with the number of schema cache hits. */
+  public static final String PROPERTY_SCHEMA_CACHE_HITS = "http://www.iso-relax.org/verifier/factory/schema-cache-hits";
+
+  /** a read-only {@link Long} property with the number of schema cache misses. */
+  public static final String PROPERTY_SCHEMA_CACHE_MISSES = "http://www.iso-relax.org/verifier/factory/schema-cache-misses";
+
+  /**
+   * a read-only {@link Long} property with the number of schemas evicted from
+   * the schema cache.
+   */
+  public static final String PROPERTY_SCHEMA_CACHE_EVICTIONS = "http://www.iso-relax.org/verifier/factory/schema-cache-evictions";
+
+  /**
+   * a feature that enables single-flight compilation. If enabled, concurrent
+   * calls of {@link #compileSchemaCached(InputSource)} (and therefore of all
+   * convenience methods) for the same cache key wait for one in-flight
+   * compilation and all receive the same {@link Schema} instance. A failure is
+   * propagated to all waiting threads. Disabled by default.
+   */
+  public static final String FEATURE_SINGLE_FLIGHT = "http://www.iso-relax.org/verifier/factory/single-flight";
+
+  /**
+   * a {@link Long} property with the maximum number of milliseconds a thread
+   * waits for an in-flight compilation started by another thread. 0 (the
+   * default) means to wait without timeout.
+   */
+  public static final String PROPERTY_SINGLE_FLIGHT_TIMEOUT = "http://www.iso-relax.org/verifier/factory/single-flight-timeout";
+
   private EntityResolver m_aResolver;
+  private volatile SchemaCache m_aSchemaCache;
+  private volatile boolean m_bSchemaCacheDigest;
+  private volatile boolean m_bSingleFlight;
+  private volatile long m_nSingleFlightTimeoutMillis;
+  private final ConcurrentHashMap <String, FutureTask <Schema>> m_aInFlight = new ConcurrentHashMap <> ();
 
   /**
    * parses a schema at the specified location and returns a Verifier object that validates
@@ -104,7 +169,7 @@ public abstract class VerifierFactory
                                                          SAXException,
                                                          IOException
   {
-    return compileSchema (source).newVerifier ();
+    return compileSchemaCached (source).newVerifier ();
   }
 
   /**
@@ -127,7 +192,7 @@ public abstract class VerifierFactory
    */
   public Schema compileSchema (final String url) throws VerifierConfigurationException, SAXException, IOException
   {
-    return compileSchema (new InputSource (url));
+    return compileSchemaCached (new InputSource (url));
   }
 
   /**
@@ -157,7 +222,7 @@ public abstract class VerifierFactory
   {
     final InputSource is = new InputSource (stream);
     is.setSystemId (systemId);
-    return compileSchema (is);
+    return compileSchemaCached (is);
   }
 
   /**
@@ -174,7 +239,200 @@ public abstract class VerifierFactory
     {
       uri = uri.replace ('\\', '/');
     }
-    return compileSchema (new InputSource (uri));
+    return compileSchemaCached (new InputSource (uri));
+  }
+
+  /**
+   * processes a schema into a Schema object, consulting the compiled schema
+   * cache first if it is enabled (see {@link #FEATURE_SCHEMA_CACHE}).
+   * <p>
+   * All the convenience <code>compileSchema</code> and <code>newVerifier</code>
+   * methods go through this method. If the cache is disabled, or if no cache
+   * key can be derived from the input source (e.g. a stream without system ID
+   * while {@link #FEATURE_SCHEMA_CACHE_DIGEST} is off), this method simply
+   * calls {@link #compileSchema(InputSource)}.
+   *
+   * @param is
+   *        InputSource of a schema file
+   */
+  public Schema compileSchemaCached (final InputSource is) throws VerifierConfigurationException,
+                                                           SAXException,
+                                                           IOException
+  {
+    final SchemaCache cache = m_aSchemaCache;
+    final boolean singleFlight = m_bSingleFlight;
+    if (cache == null && !singleFlight)
+      return compileSchema (is);
+
+    final String key = m_bSchemaCacheDigest ? ContentDigest.createDigestKey (is) : ContentDigest.createSystemIdKey (is);
+    if (key == null)
+      return compileSchema (is);
+
+    if (cache != null)
+    {
+      final Schema schema = cache.get (key);
+      if (schema != null)
+        return schema;
+    }
+
+    if (singleFlight)
+      return _compileSingleFlight (key, is, cache);
+
+    final Schema schema = compileSchema (is);
+    if (cache != null && schema != null)
+      cache.put (key, schema);
+    return schema;
+  }
+
+  private Schema _compileSingleFlight (final String key,
+                                       final InputSource is,
+                                       final SchemaCache cache) throws VerifierConfigurationException,
+                                                                SAXException,
+                                                                IOException
+  {
+    final FutureTask <Schema> task = new FutureTask <> ( () -> {
+      final Schema schema = compileSchema (is);
+      // publish to the cache before the in-flight entry is removed, so that
+      // late callers find either of them
+      if (cache != null && schema != null)
+        cache.put (key, schema);
+      return schema;
+    });
+
+    final FutureTask <Schema> inFlight = m_aInFlight.putIfAbsent (key, task);
+    if (inFlight == null)
+    {
+      try
+      {
+        task.run ();
+      }
+      finally
+      {
+        m_aInFlight.remove (key, task);
+      }
+    }
+
+    try
+    {
+      if (inFlight == null)
+        return task.get ();
+
+      final long timeout = m_nSingleFlightTimeoutMillis;
+      return timeout > 0 ? inFlight.get (timeout, TimeUnit.MILLISECONDS) : inFlight.get ();
+    }
+    catch (final ExecutionException ex)
+    {
+      throw _rethrow (ex.getCause ());
+    }
+    catch (final TimeoutException ex)
+    {
+      throw new VerifierConfigurationException ("Timed out after " +
+                                                m_nSingleFlightTimeoutMillis +
+                                                " ms waiting for the compilation of " +
+                                                key,
+                                                ex);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new VerifierConfigurationException ("Interrupted while waiting for the compilation of " + key, ex);
+    }
+  }
+
+  private static VerifierConfigurationException _rethrow (final Throwable cause) throws SAXException, IOException
+  {
+    if (cause instanceof VerifierConfigurationException)
+      return (VerifierConfigurationException) cause;
+    if (cause instanceof SAXException)
+      throw (SAXException) cause;
+    if (cause instanceof IOException)
+      throw (IOException) cause;
+    if (cause instanceof RuntimeException)
+      throw (RuntimeException) cause;
+    if (cause instanceof Error)
+      throw (Error) cause;
+    return new VerifierConfigurationException ((Exception) cause);
+  }
+
+  /**
+   * processes a schema into a Schema object asynchronously.
+   * <p>
+   * The compilation goes through {@link #compileSchemaCached(InputSource)}, so
+   * the schema cache and single-flight compilation apply if enabled. Note that
+   * this only makes sense for implementations whose
+   * {@link #compileSchema(InputSource)} method may be called concurrently.
+   *
+   * @param is
+   *        InputSource of a schema file
+   * @param executor
+   *        the executor to run the compilation on. May not be
+   *        <code>null</code>.
+   * @return a future that completes with the compiled schema, or exceptionally
+   *         with the exception thrown by the compilation.
+   */
+  public CompletableFuture <Schema> compileSchemaAsync (final InputSource is, final Executor executor)
+  {
+    final CompletableFuture <Schema> ret = new CompletableFuture <> ();
+    executor.execute ( () -> {
+      try
+      {
+        ret.complete (compileSchemaCached (is));
+      }
+      catch (final Throwable t)
+      {
+        ret.completeExceptionally (t);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * processes several schemas in parallel on the common fork-join pool.
+   * <p>
+   * The same concurrency restrictions as for
+   * {@link #compileSchemaAsync(InputSource, Executor)} apply.
+   *
+   * @param sources
+   *        InputSources of the schema files
+   * @return the compiled schemas in the order of the sources.
+   * @exception VerifierConfigurationException
+   *            or any other exception thrown by the compilation of the first
+   *            failing source. All other compilations are still awaited.
+   */
+  public List <Schema> compileSchemas (final Collection <? extends InputSource> sources) throws VerifierConfigurationException,
+                                                                                          SAXException,
+                                                                                          IOException
+  {
+    final List <CompletableFuture <Schema>> futures = new ArrayList <> (sources.size ());
+    for (final InputSource is : sources)
+      futures.add (compileSchemaAsync (is, ForkJoinPool.commonPool ()));
+
+    final List <Schema> ret = new ArrayList <> (futures.size ());
+    Throwable failure = null;
+    for (final CompletableFuture <Schema> future : futures)
+    {
+      try
+      {
+        ret.add (future.join ());
+      }
+      catch (final CompletionException ex)
+      {
+        if (failure == null)
+          failure = ex.getCause ();
+      }
+    }
+    if (failure != null)
+      throw _rethrow (failure);
+    return ret;
+  }
+
+  /**
+   * @return the compiled schema cache or <code>null</code> if caching is
+   *         disabled.
+   */
+  public SchemaCache getSchemaCache ()
+  {
+    return m_aSchemaCache;
   }
 
   /**
@@ -188,6 +446,12 @@ public abstract class VerifierFactory
   {
     if (Verifier.FEATURE_HANDLER.equals (feature) || Verifier.FEATURE_FILTER.equals (feature))
       return true;
+    if (FEATURE_SCHEMA_CACHE.equals (feature))
+      return m_aSchemaCache != null;
+    if (FEATURE_SCHEMA_CACHE_DIGEST.equals (feature))
+      return m_bSchemaCacheDigest;
+    if (FEATURE_SINGLE_FLIGHT.equals (feature))
+      return m_bSingleFlight;
 
     throw new SAXNotRecognizedException (feature);
   }
@@ -202,6 +466,32 @@ public abstract class VerifierFactory
    */
   public void setFeature (final String feature, final boolean value) throws SAXNotRecognizedException
   {
+    if (FEATURE_SCHEMA_CACHE.equals (feature))
+    {
+      if (!value)
+        m_aSchemaCache = null;
+      else
+        if (m_aSchemaCache == null)
+          m_aSchemaCache = new SchemaCache ();
+      return;
+    }
+    if (FEATURE_SCHEMA_CACHE_DIGEST.equals (feature))
+    {
+      if (value != m_bSchemaCacheDigest)
+      {
+        m_bSchemaCacheDigest = value;
+        // keys of the old mode can never match again
+        final SchemaCache cache = m_aSchemaCache;
+        if (cache != null)
+          cache.clear ();
+      }
+      return;
+    }
+    if (FEATURE_SINGLE_FLIGHT.equals (feature))
+    {
+      m_bSingleFlight = value;
+      return;
+    }
     throw new SAXNotRecognizedException (feature);
   }
 
@@ -213,6 +503,18 @@ public abstract class VerifierFactory
    */
   public Object getProperty (final String property) throws SAXNotRecognizedException
   {
+    final SchemaCache cache = m_aSchemaCache;
+    if (PROPERTY_SCHEMA_CACHE_SIZE.equals (property))
+      return Integer.valueOf (cache == null ? 0 : cache.getMaxSize ());
+    if (PROPERTY_SCHEMA_CACHE_HITS.equals (property))
+      return Long.valueOf (cache == null ? 0 : cache.getHitCount ());
+    if (PROPERTY_SCHEMA_CACHE_MISSES.equals (property))
+      return Long.valueOf (cache == null ? 0 : cache.getMissCount ());
+    if (PROPERTY_SCHEMA_CACHE_EVICTIONS.equals (property))
+      return Long.valueOf (cache == null ? 0 : cache.getEvictionCount ());
+    if (PROPERTY_SINGLE_FLIGHT_TIMEOUT.equals (property))
+      return Long.valueOf (m_nSingleFlightTimeoutMillis);
+
     throw new SAXNotRecognizedException (property);
   }
 
@@ -227,6 +529,22 @@ public abstract class VerifierFactory
   public void setProperty (final String property, final Object value) throws SAXNotRecognizedException
 
   {
+    if (PROPERTY_SCHEMA_CACHE_SIZE.equals (property))
+    {
+      if (!(value instanceof Number))
+        throw new IllegalArgumentException ("Number expected for " + property + ": " + value);
+      final int size = ((Number) value).intValue ();
+      m_aSchemaCache = size > 0 ? new SchemaCache (size) : null;
+      return;
+    }
+    if (PROPERTY_SINGLE_FLIGHT_TIMEOUT.equals (property))
+    {
+      if (!(value instanceof Number) || ((Number) value).longValue () < 0)
+        throw new IllegalArgumentException ("Non-negative number expected for " + property + ": " + value);
+      m_nSingleFlightTimeoutMillis = ((Number) value).longValue ();
+      return;
+    }
+
     throw new SAXNotRecognizedException (property);
   }
 
@@ -237,6 +555,10 @@ public abstract class VerifierFactory
   public void setEntityResolver (final EntityResolver _resolver)
   {
     this.m_aResolver = _resolver;
+    // cached schemas may have been resolved differently
+    final SchemaCache cache = m_aSchemaCache;
+    if (cache != null)
+      cache.clear ();
   }
 
   /**
@@ -302,22 +624,12 @@ public abstract class VerifierFactory
    * @return a non-null valid VerifierFactory instance.
    * @exception VerifierConfigurationException
    *            if no implementation is available for the specified language.
+   * @see VerifierFactoryRegistry
    */
   public static VerifierFactory newInstance (final String language, final ClassLoader classLoader)
                                                                                                    throws VerifierConfigurationException
   {
-    for (final VerifierFactoryLoader loader : ServiceLoader.load (VerifierFactoryLoader.class, classLoader))
-    {
-      try
-      {
-        final VerifierFactory factory = loader.createFactory (language);
-        if (factory != null)
-          return factory;
-      }
-      catch (final Throwable t)
-      {} // ignore any error
-    }
-    throw new VerifierConfigurationException ("no validation engine available for: " + language);
+    return VerifierFactoryRegistry.createFactory (language, classLoader);
   }
 
   public static VerifierFactory newInstance (final String language) throws VerifierConfigurationException
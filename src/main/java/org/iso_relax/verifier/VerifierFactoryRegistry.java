@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the {@link VerifierFactoryLoader} implementations available to a
+ * class loader.
+ * <p>
+ * The service loaders are discovered only once per class loader. For each
+ * schema language the loader that supports it is remembered, so that
+ * subsequent lookups call only that loader. Languages that no loader supports
+ * are remembered as well, so that repeated lookups fail fast, unless a loader
+ * threw an exception during the lookup, as that may be a temporary problem.
+ * Failures of loaders are recorded and can be queried with
+ * {@link #getFailures(ClassLoader)}. As the languages may come from untrusted
+ * input, both collections are limited in size.
+ * <p>
+ * The per class loader index is only softly referenced, so it does not prevent
+ * a class loader from being garbage collected under memory pressure. Containers
+ * that undeploy applications should nevertheless call
+ * {@link #clear(ClassLoader)}.
+ */
+public final class VerifierFactoryRegistry
+{
+  /**
+   * describes a failure of a {@link VerifierFactoryLoader}.
+   */
+  public static final class LoaderFailure
+  {
+    private final String m_sLoaderClassName;
+    private final String m_sLanguage;
+    private final Throwable m_aCause;
+
+    LoaderFailure (final String loaderClassName, final String language, final Throwable cause)
+    {
+      m_sLoaderClassName = loaderClassName;
+      m_sLanguage = language;
+      m_aCause = cause;
+    }
+
+    /**
+     * @return the class name of the failed loader, or <code>null</code> if the
+     *         loader itself could not be instantiated.
+     */
+    public String getLoaderClassName ()
+    {
+      return m_sLoaderClassName;
+    }
+
+    /**
+     * @return the schema language that was requested, or <code>null</code> if
+     *         the failure happened while discovering the loaders.
+     */
+    public String getLanguage ()
+    {
+      return m_sLanguage;
+    }
+
+    /**
+     * @return the exception or error thrown by the loader.
+     */
+    public Throwable getCause ()
+    {
+      return m_aCause;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return (m_sLoaderClassName == null ? "service discovery" : m_sLoaderClassName) +
+             (m_sLanguage == null ? "" : " for " + m_sLanguage) +
+             ": " +
+             m_aCause;
+    }
+  }
+
+  /** The maximum number of remembered unsupported languages per class loader */
+  private static final int MAX_UNSUPPORTED = 1024;
+  /** The maximum number of recorded failures per class loader */
+  private static final int MAX_FAILURES = 64;
+
+  private static final class Index
+  {
+    private final List <VerifierFactoryLoader> m_aLoaders = new ArrayList <> ();
+    private final Map <String, VerifierFactoryLoader> m_aSupported = new ConcurrentHashMap <> ();
+    private final Set <String> m_aUnsupported = Collections.newSetFromMap (new ConcurrentHashMap <String, Boolean> ());
+    private final List <LoaderFailure> m_aFailures = new CopyOnWriteArrayList <> ();
+    /** the number of failures ever recorded, including the dropped ones */
+    private final AtomicLong m_aFailureCount = new AtomicLong ();
+
+    Index (final ClassLoader classLoader)
+    {
+      final Iterator <VerifierFactoryLoader> it = ServiceLoader.load (VerifierFactoryLoader.class, classLoader)
+                                                               .iterator ();
+      while (true)
+      {
+        try
+        {
+          if (!it.hasNext ())
+            break;
+        }
+        catch (final ServiceConfigurationError ex)
+        {
+          // broken service configuration file - nothing more to find
+          addFailure (new LoaderFailure (null, null, ex));
+          break;
+        }
+        try
+        {
+          m_aLoaders.add (it.next ());
+        }
+        catch (final ServiceConfigurationError ex)
+        {
+          // this provider can not be instantiated - continue with the next
+          addFailure (new LoaderFailure (null, null, ex));
+        }
+      }
+    }
+
+    VerifierFactory createFactory (final VerifierFactoryLoader loader, final String language)
+    {
+      try
+      {
+        return loader.createFactory (language);
+      }
+      catch (final VirtualMachineError ex)
+      {
+        // e.g. OutOfMemoryError - nothing a broken loader is responsible for
+        throw ex;
+      }
+      catch (final Throwable t)
+      {
+        // e.g. an AssertionError or a custom Error of a broken loader
+        addFailure (new LoaderFailure (loader.getClass ().getName (), language, t));
+        return null;
+      }
+    }
+
+    /**
+     * records a failure. If there are too many, the oldest one is dropped.
+     */
+    void addFailure (final LoaderFailure failure)
+    {
+      m_aFailureCount.incrementAndGet ();
+      synchronized (m_aFailures)
+      {
+        m_aFailures.add (failure);
+        if (m_aFailures.size () > MAX_FAILURES)
+          m_aFailures.remove (0);
+      }
+    }
+
+    void addUnsupported (final String language)
+    {
+      // beyond the limit, lookups of further languages are just not cached
+      if (m_aUnsupported.size () < MAX_UNSUPPORTED)
+        m_aUnsupported.add (language);
+    }
+  }
+
+  private static final Map <ClassLoader, SoftReference <Index>> s_aIndices = new WeakHashMap <> ();
+
+  private VerifierFactoryRegistry ()
+  {}
+
+  private static Index _getIndex (final ClassLoader classLoader)
+  {
+    synchronized (s_aIndices)
+    {
+      final SoftReference <Index> ref = s_aIndices.get (classLoader);
+      Index index = ref == null ? null : ref.get ();
+      if (index == null)
+      {
+        index = new Index (classLoader);
+        s_aIndices.put (classLoader, new SoftReference <> (index));
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Creates a new instance of a VerifierFactory for the specified schema
+   * language.
+   *
+   * @param language
+   *        URI that specifies the schema language.
+   * @param classLoader
+   *        This class loader is used to search the available implementation.
+   * @return a non-null valid VerifierFactory instance.
+   * @exception VerifierConfigurationException
+   *            if no implementation is available for the specified language.
+   * @see VerifierFactory#newInstance(String, ClassLoader)
+   */
+  public static VerifierFactory createFactory (final String language,
+                                               final ClassLoader classLoader) throws VerifierConfigurationException
+  {
+    final Index index = _getIndex (classLoader);
+    if (!index.m_aUnsupported.contains (language))
+    {
+      final long failuresBefore = index.m_aFailureCount.get ();
+      final VerifierFactoryLoader known = index.m_aSupported.get (language);
+      if (known != null)
+      {
+        final VerifierFactory factory = index.createFactory (known, language);
+        if (factory != null)
+          return factory;
+        index.m_aSupported.remove (language, known);
+      }
+
+      for (final VerifierFactoryLoader loader : index.m_aLoaders)
+      {
+        final VerifierFactory factory = index.createFactory (loader, language);
+        if (factory != null)
+        {
+          index.m_aSupported.put (language, loader);
+          return factory;
+        }
+      }
+      // don't remember the language if a loader failed, e.g. temporarily
+      if (index.m_aFailureCount.get () == failuresBefore)
+        index.addUnsupported (language);
+    }
+
+    final StringBuilder sb = new StringBuilder ("no validation engine available for: ").append (language);
+    for (final LoaderFailure failure : index.m_aFailures)
+      if (failure.getLanguage () == null || failure.getLanguage ().equals (language))
+        sb.append ("\n  ").append (failure);
+    throw new VerifierConfigurationException (sb.toString ());
+  }
+
+  /**
+   * discovers the loaders of the given class loader and resolves the given
+   * schema languages in advance, so that the first call of
+   * {@link #createFactory(String, ClassLoader)} does not pay for it.
+   *
+   * @param classLoader
+   *        The class loader to warm up.
+   * @param languages
+   *        The schema languages to resolve.
+   * @return the languages which are not supported by any loader. Never
+   *         <code>null</code>.
+   */
+  public static List <String> warmUp (final ClassLoader classLoader, final String... languages)
+  {
+    final List <String> ret = new ArrayList <> ();
+    for (final String language : languages)
+      try
+      {
+        createFactory (language, classLoader);
+      }
+      catch (final VerifierConfigurationException ex)
+      {
+        ret.add (language);
+      }
+    return ret;
+  }
+
+  /**
+   * @param classLoader
+   *        The class loader to query.
+   * @return the most recent failures of loaders (or of the loader discovery)
+   *         that happened for the given class loader so far, oldest first. At
+   *         most 64 failures are kept. Never <code>null</code>.
+   */
+  public static List <LoaderFailure> getFailures (final ClassLoader classLoader)
+  {
+    return Collections.unmodifiableList (new ArrayList <> (_getIndex (classLoader).m_aFailures));
+  }
+
+  /**
+   * forgets everything known about the given class loader. The next lookup
+   * discovers the loaders again.
+   */
+  public static void clear (final ClassLoader classLoader)
+  {
+    synchronized (s_aIndices)
+    {
+      s_aIndices.remove (classLoader);
+    }
+  }
+
+  /**
+   * forgets everything known about all class loaders.
+   */
+  public static void clearAll ()
+  {
+    synchronized (s_aIndices)
+    {
+      s_aIndices.clear ();
+    }
+  }
+}
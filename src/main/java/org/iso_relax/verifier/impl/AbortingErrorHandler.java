@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * An error handler that forwards to another one and aborts the parsing with a
+ * {@link ValidationAbortedException} once a given number of errors was
+ * reported. Fatal errors are not counted, because the parser stops on them
+ * anyway.
+ */
+class AbortingErrorHandler implements ErrorHandler
+{
+  private final ErrorHandler m_aDelegate;
+  private final int m_nMaxErrors;
+  private int m_nErrors;
+
+  AbortingErrorHandler (final ErrorHandler delegate, final int maxErrors)
+  {
+    m_aDelegate = delegate;
+    m_nMaxErrors = maxErrors;
+  }
+
+  public void warning (final SAXParseException e) throws SAXException
+  {
+    m_aDelegate.warning (e);
+  }
+
+  public void error (final SAXParseException e) throws SAXException
+  {
+    m_aDelegate.error (e);
+    _count ();
+  }
+
+  public void fatalError (final SAXParseException e) throws SAXException
+  {
+    m_aDelegate.fatalError (e);
+  }
+
+  private void _count () throws ValidationAbortedException
+  {
+    if (++m_nErrors >= m_nMaxErrors)
+      throw new ValidationAbortedException ("Validation aborted after " + m_nErrors + " error(s)");
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of {@link BatchVerifier}: per-document results plus aggregated
+ * statistics.
+ */
+public class BatchVerificationResult
+{
+  private final List <DocumentVerificationResult> m_aResults;
+  private final long m_nValid;
+  private final long m_nInvalid;
+  private final long m_nFailed;
+  private final long m_nDurationNanos;
+
+  public BatchVerificationResult (final List <DocumentVerificationResult> results,
+                                  final long valid,
+                                  final long invalid,
+                                  final long failed,
+                                  final long durationNanos)
+  {
+    m_aResults = Collections.unmodifiableList (results);
+    m_nValid = valid;
+    m_nInvalid = invalid;
+    m_nFailed = failed;
+    m_nDurationNanos = durationNanos;
+  }
+
+  /**
+   * @return the per-document results in the order of the input. Empty if the
+   *         results were passed to a listener instead. Never <code>null</code>.
+   */
+  public List <DocumentVerificationResult> getResults ()
+  {
+    return m_aResults;
+  }
+
+  /**
+   * @return the number of processed documents.
+   */
+  public long getDocumentCount ()
+  {
+    return m_nValid + m_nInvalid + m_nFailed;
+  }
+
+  /**
+   * @return the number of valid documents.
+   */
+  public long getValidCount ()
+  {
+    return m_nValid;
+  }
+
+  /**
+   * @return the number of invalid documents.
+   */
+  public long getInvalidCount ()
+  {
+    return m_nInvalid;
+  }
+
+  /**
+   * @return the number of documents that could not be validated because of an
+   *         exception.
+   */
+  public long getFailedCount ()
+  {
+    return m_nFailed;
+  }
+
+  /**
+   * @return <code>true</code> if all documents were valid.
+   */
+  public boolean isAllValid ()
+  {
+    return m_nInvalid == 0 && m_nFailed == 0;
+  }
+
+  /**
+   * @return the wall clock duration of the batch in nanoseconds.
+   */
+  public long getDurationNanos ()
+  {
+    return m_nDurationNanos;
+  }
+
+  /**
+   * @return the throughput in documents per second.
+   */
+  public double getDocumentsPerSecond ()
+  {
+    return m_nDurationNanos == 0 ? 0 : getDocumentCount () * 1_000_000_000d / m_nDurationNanos;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getDocumentCount () +
+           " documents (" +
+           m_nValid +
+           " valid, " +
+           m_nInvalid +
+           " invalid, " +
+           m_nFailed +
+           " failed) in " +
+           m_nDurationNanos / 1_000_000 +
+           " ms";
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.iso_relax.verifier.Schema;
+import org.xml.sax.InputSource;
+
+/**
+ * Validates many documents against one {@link Schema} in parallel.
+ * <p>
+ * The documents are distributed over a bounded number of worker threads, each
+ * of which reuses its own verifier (see {@link ConcurrentVerifier}). The input
+ * is consumed lazily, so arbitrarily large inputs can be processed with the
+ * listener variant without keeping all results in memory.
+ */
+public final class BatchVerifier
+{
+  private static final AtomicInteger s_aPoolCounter = new AtomicInteger ();
+
+  private BatchVerifier ()
+  {}
+
+  /**
+   * validates all documents and collects the per-document results.
+   *
+   * @param schema
+   *        the schema to validate against. May not be <code>null</code>.
+   * @param sources
+   *        the documents to validate. May not be <code>null</code>.
+   * @param parallelism
+   *        the number of worker threads. Must be &gt; 0.
+   * @return the results in the order of the sources plus statistics. Never
+   *         <code>null</code>.
+   */
+  public static BatchVerificationResult verifyAll (final Schema schema,
+                                                   final Iterable <? extends InputSource> sources,
+                                                   final int parallelism) throws InterruptedException
+  {
+    final ConcurrentLinkedQueue <DocumentVerificationResult> collected = new ConcurrentLinkedQueue <> ();
+    final BatchVerificationResult stats = verifyAll (schema, sources, parallelism, collected::add);
+
+    final List <DocumentVerificationResult> results = new ArrayList <> (collected);
+    results.sort (Comparator.comparingLong (DocumentVerificationResult::getIndex));
+    return new BatchVerificationResult (results,
+                                        stats.getValidCount (),
+                                        stats.getInvalidCount (),
+                                        stats.getFailedCount (),
+                                        stats.getDurationNanos ());
+  }
+
+  /**
+   * validates all documents and passes each per-document result to the given
+   * listener as soon as it is available. The listener is called concurrently
+   * from the worker threads, in no particular order.
+   * <p>
+   * If the listener throws an exception, no further documents are submitted,
+   * the documents that were already submitted but not yet started are
+   * skipped, and the first exception of the listener is rethrown after all
+   * workers have finished.
+   *
+   * @param schema
+   *        the schema to validate against. May not be <code>null</code>.
+   * @param sources
+   *        the documents to validate. May not be <code>null</code>.
+   * @param parallelism
+   *        the number of worker threads. Must be &gt; 0.
+   * @param listener
+   *        receives the per-document results. May not be <code>null</code>.
+   * @return the statistics without per-document results. Never
+   *         <code>null</code>.
+   * @throws RuntimeException
+   *         the first exception thrown by the listener. Checked exceptions
+   *         are wrapped in an {@link IllegalStateException}.
+   */
+  public static BatchVerificationResult verifyAll (final Schema schema,
+                                                   final Iterable <? extends InputSource> sources,
+                                                   final int parallelism,
+                                                   final Consumer <? super DocumentVerificationResult> listener) throws InterruptedException
+  {
+    if (parallelism <= 0)
+      throw new IllegalArgumentException ("parallelism must be > 0: " + parallelism);
+
+    final ConcurrentVerifier verifier = new ConcurrentVerifier (schema);
+    final AtomicLong valid = new AtomicLong ();
+    final AtomicLong invalid = new AtomicLong ();
+    final AtomicLong failed = new AtomicLong ();
+    final AtomicReference <Throwable> listenerFailure = new AtomicReference <> ();
+    // limit the number of queued documents so that the input is read lazily
+    final Semaphore inFlight = new Semaphore (parallelism * 4);
+
+    final int poolId = s_aPoolCounter.incrementAndGet ();
+    final AtomicInteger threadCounter = new AtomicInteger ();
+    final ThreadFactory threadFactory = r -> {
+      final Thread t = new Thread (r, "isorelax-batch-" + poolId + "-" + threadCounter.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    final ExecutorService executor = Executors.newFixedThreadPool (parallelism, threadFactory);
+
+    final long start = System.nanoTime ();
+    try
+    {
+      long index = 0;
+      for (final InputSource source : sources)
+      {
+        final long docIndex = index++;
+        inFlight.acquire ();
+        if (listenerFailure.get () != null)
+        {
+          inFlight.release ();
+          break;
+        }
+        executor.execute ( () -> {
+          try
+          {
+            if (listenerFailure.get () != null)
+              return;
+            DocumentVerificationResult result;
+            try
+            {
+              result = new DocumentVerificationResult (docIndex, source.getSystemId (), verifier.verify (source), null);
+            }
+            catch (final Exception ex)
+            {
+              result = new DocumentVerificationResult (docIndex, source.getSystemId (), false, ex);
+            }
+            (result.isFailed () ? failed : result.isValid () ? valid : invalid).incrementAndGet ();
+            try
+            {
+              listener.accept (result);
+            }
+            catch (final Throwable t)
+            {
+              // rethrown by the calling thread
+              listenerFailure.compareAndSet (null, t);
+            }
+          }
+          finally
+          {
+            inFlight.release ();
+          }
+        });
+      }
+    }
+    finally
+    {
+      executor.shutdown ();
+    }
+    executor.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+    final Throwable failure = listenerFailure.get ();
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+    if (failure != null)
+      throw new IllegalStateException ("The listener failed", failure);
+
+    return new BatchVerificationResult (new ArrayList <> (0),
+                                        valid.get (),
+                                        invalid.get (),
+                                        failed.get (),
+                                        System.nanoTime () - start);
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import org.iso_relax.verifier.ContentDigest;
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierConfigurationException;
+import org.iso_relax.verifier.VerifierException;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A thread-safe facade for validating documents against one {@link Schema}.
+ * <p>
+ * Unlike {@link Verifier}, one instance of this class can be shared by any
+ * number of threads. Each thread lazily gets its own {@link Verifier} (and
+ * therefore its own XMLReader), which is reused for all subsequent calls of
+ * that thread. No locks are involved, and no parser is constructed per call.
+ * <p>
+ * Because the verifiers are kept per thread, this class is meant for a bounded
+ * number of long-living threads, like the ones of a thread pool. For many
+ * short-living threads use a {@link VerifierPool} instead.
+ */
+public class ConcurrentVerifier
+{
+  private final Schema m_aSchema;
+  private final ThreadLocal <Verifier> m_aVerifiers = new ThreadLocal <> ();
+  private volatile VerificationResultCache m_aResultCache;
+
+  /**
+   * @param schema
+   *        the schema to validate against. May not be <code>null</code>.
+   */
+  public ConcurrentVerifier (final Schema schema)
+  {
+    if (schema == null)
+      throw new IllegalArgumentException ("schema");
+    m_aSchema = schema;
+  }
+
+  /**
+   * @return the schema of this verifier.
+   */
+  public Schema getSchema ()
+  {
+    return m_aSchema;
+  }
+
+  /**
+   * @return the result cache used by {@link #verify(InputSource)} and
+   *         {@link #verify(byte[], int, int)}. May be <code>null</code>.
+   */
+  public VerificationResultCache getResultCache ()
+  {
+    return m_aResultCache;
+  }
+
+  /**
+   * sets a result cache, so that documents with the same content as a
+   * previously validated one are not validated again. It is used by
+   * {@link #verify(InputSource)} and {@link #verify(byte[], int, int)} only.
+   *
+   * @param cache
+   *        the cache. May be <code>null</code> to disable caching.
+   */
+  public void setResultCache (final VerificationResultCache cache)
+  {
+    m_aResultCache = cache;
+  }
+
+  /**
+   * @return the verifier of the calling thread. Never <code>null</code>.
+   */
+  protected Verifier getThreadVerifier () throws SAXException
+  {
+    Verifier verifier = m_aVerifiers.get ();
+    if (verifier == null)
+    {
+      try
+      {
+        verifier = m_aSchema.newVerifier ();
+      }
+      catch (final VerifierConfigurationException ex)
+      {
+        throw new VerifierException (ex);
+      }
+      m_aVerifiers.set (verifier);
+    }
+    return verifier;
+  }
+
+  /**
+   * validates an XML document.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final InputSource source) throws SAXException, IOException
+  {
+    final VerificationResultCache cache = m_aResultCache;
+    if (cache == null || (source.getByteStream () == null && source.getCharacterStream () == null))
+    {
+      // without content the document may change behind the system ID
+      return getThreadVerifier ().verify (source);
+    }
+
+    // reads the content into memory
+    final String key = ContentDigest.createDigestKey (source);
+    final Boolean cached = cache.get (m_aSchema, key);
+    if (cached != null)
+      return cached.booleanValue ();
+    final boolean valid = getThreadVerifier ().verify (source);
+    cache.put (m_aSchema, key, valid);
+    return valid;
+  }
+
+  /**
+   * validates an XML document and reports all errors/warnings of this call to
+   * the given error handler.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @param errorHandler
+   *        this object will receive errors/warning encountered during this
+   *        validation. May be <code>null</code>.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final InputSource source, final ErrorHandler errorHandler) throws SAXException, IOException
+  {
+    final Verifier verifier = getThreadVerifier ();
+    if (errorHandler == null)
+      return verifier.verify (source);
+
+    verifier.setErrorHandler (errorHandler);
+    try
+    {
+      return verifier.verify (source);
+    }
+    finally
+    {
+      verifier.setErrorHandler (VerifierPool.SILENT_ERROR_HANDLER);
+    }
+  }
+
+  /**
+   * validates an XML document and returns all reported errors and warnings as
+   * a report.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @param maxErrors
+   *        the validation is stopped after this many errors. A value &le; 0
+   *        means no limit.
+   * @return the report. Never <code>null</code>.
+   * @exception UnsupportedOperationException
+   *            if the verifiers of the schema are not derived from
+   *            {@link VerifierImpl}.
+   * @see VerifierImpl#verifyWithReport(InputSource, int)
+   */
+  public ValidationReport verifyWithReport (final InputSource source, final int maxErrors) throws SAXException,
+                                                                                           IOException
+  {
+    final Verifier verifier = getThreadVerifier ();
+    if (!(verifier instanceof VerifierImpl))
+      throw new UnsupportedOperationException ("Reports are only supported for VerifierImpl based verifiers");
+    return ((VerifierImpl) verifier).verifyWithReport (source, maxErrors);
+  }
+
+  /**
+   * validates an XML document.
+   *
+   * @param uri
+   *        URI of a document.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final String uri) throws SAXException, IOException
+  {
+    return getThreadVerifier ().verify (uri);
+  }
+
+  /**
+   * validates an XML document.
+   *
+   * @param file
+   *        File to be validated
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final File file) throws SAXException, IOException
+  {
+    return getThreadVerifier ().verify (file);
+  }
+
+  /**
+   * validates an XML document.
+   *
+   * @param path
+   *        Path of the file to be validated
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   * @see Verifier#verify(Path)
+   */
+  public boolean verify (final Path path) throws SAXException, IOException
+  {
+    return getThreadVerifier ().verify (path);
+  }
+
+  /**
+   * validates an XML document that is held in a byte array.
+   *
+   * @param bytes
+   *        the bytes of the document
+   * @param offset
+   *        the index of the first byte of the document
+   * @param length
+   *        the number of bytes of the document
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   * @see Verifier#verify(byte[], int, int)
+   */
+  public boolean verify (final byte [] bytes, final int offset, final int length) throws SAXException, IOException
+  {
+    final VerificationResultCache cache = m_aResultCache;
+    if (cache == null)
+      return getThreadVerifier ().verify (bytes, offset, length);
+
+    final String key = ContentDigest.createDigestKey (bytes, offset, length, null);
+    final Boolean cached = cache.get (m_aSchema, key);
+    if (cached != null)
+      return cached.booleanValue ();
+    final boolean valid = getThreadVerifier ().verify (bytes, offset, length);
+    cache.put (m_aSchema, key, valid);
+    return valid;
+  }
+
+  /**
+   * validates an XML document that is held in the remaining bytes of a
+   * buffer.
+   *
+   * @param buffer
+   *        the buffer with the document
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   * @see Verifier#verify(ByteBuffer)
+   */
+  public boolean verify (final ByteBuffer buffer) throws SAXException, IOException
+  {
+    return getThreadVerifier ().verify (buffer);
+  }
+
+  /**
+   * validates an XML document.
+   *
+   * @param node
+   *        the root DOM node of an XML document.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   * @see Verifier#verify(Node)
+   */
+  public boolean verify (final Node node) throws SAXException
+  {
+    return getThreadVerifier ().verify (node);
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The default {@link XMLReaderProvider}.
+ * <p>
+ * It creates the readers from one shared {@link SAXParserFactory}, so the
+ * costly factory lookup of {@link SAXParserFactory#newInstance()} happens only
+ * once. Released readers are kept per thread and handed out again to the next
+ * caller on the same thread.
+ * <p>
+ * Before a released reader is kept, its handlers and the SAX2 extension handler
+ * properties (lexical and declaration handler) are reset, and its standard
+ * features are compared with those of a new reader. A reader whose features
+ * were changed is dropped instead of being recycled. Other, implementation
+ * specific properties are not checked, so a caller that changes them should
+ * not release the reader.
+ */
+public class DefaultXMLReaderProvider implements XMLReaderProvider
+{
+  /** created lazily, so that a broken parser configuration can be retried */
+  private static volatile DefaultXMLReaderProvider s_aDefaultInstance;
+
+  /** neutral handlers for released readers */
+  private static final DefaultHandler NULL_HANDLER = new DefaultHandler ();
+
+  /** the features that must be unchanged for a reader to be recycled */
+  private static final String [] RECYCLE_FEATURES = { "http://xml.org/sax/features/namespaces",
+                                                      "http://xml.org/sax/features/namespace-prefixes",
+                                                      "http://xml.org/sax/features/validation",
+                                                      "http://xml.org/sax/features/external-general-entities",
+                                                      "http://xml.org/sax/features/external-parameter-entities",
+                                                      XMLConstants.FEATURE_SECURE_PROCESSING,
+                                                      "http://apache.org/xml/features/disallow-doctype-decl",
+                                                      "http://apache.org/xml/features/nonvalidating/load-external-dtd" };
+
+  /** the handler properties that are reset before a reader is recycled */
+  private static final String [] HANDLER_PROPERTIES = { "http://xml.org/sax/properties/lexical-handler",
+                                                        "http://xml.org/sax/properties/declaration-handler" };
+
+  private final SAXParserFactory m_aFactory;
+  private final ThreadLocal <XMLReader> m_aReleased = new ThreadLocal <> ();
+  /** the features of a new reader, see RECYCLE_FEATURES */
+  private volatile Boolean [] m_aInitialFeatures;
+
+  /**
+   * creates a provider that uses the default {@link SAXParserFactory}
+   * implementation.
+   */
+  public DefaultXMLReaderProvider ()
+  {
+    this (_createDefaultFactory ());
+  }
+
+  private static SAXParserFactory _createDefaultFactory ()
+  {
+    final SAXParserFactory factory = SAXParserFactory.newInstance ();
+    factory.setNamespaceAware (true);
+    return factory;
+  }
+
+  /**
+   * creates a provider that uses the given factory, e.g. a pre-tuned one or
+   * one of an alternative SAX implementation obtained with
+   * {@link SAXParserFactory#newInstance(String, ClassLoader)}.
+   *
+   * @param factory
+   *        the factory to use. It must be namespace aware and must not be
+   *        modified afterwards.
+   */
+  public DefaultXMLReaderProvider (final SAXParserFactory factory)
+  {
+    if (factory == null)
+      throw new IllegalArgumentException ("factory");
+    m_aFactory = factory;
+  }
+
+  /**
+   * @return the shared instance that uses the default
+   *         {@link SAXParserFactory}.
+   */
+  public static DefaultXMLReaderProvider getDefaultInstance ()
+  {
+    DefaultXMLReaderProvider ret = s_aDefaultInstance;
+    if (ret == null)
+      synchronized (DefaultXMLReaderProvider.class)
+      {
+        ret = s_aDefaultInstance;
+        if (ret == null)
+        {
+          ret = new DefaultXMLReaderProvider ();
+          s_aDefaultInstance = ret;
+        }
+      }
+    return ret;
+  }
+
+  /**
+   * @return the values of RECYCLE_FEATURES, with <code>null</code> for the
+   *         features the reader does not support.
+   */
+  private static Boolean [] _readFeatures (final XMLReader reader)
+  {
+    final Boolean [] ret = new Boolean [RECYCLE_FEATURES.length];
+    for (int i = 0; i < RECYCLE_FEATURES.length; i++)
+      try
+      {
+        ret[i] = Boolean.valueOf (reader.getFeature (RECYCLE_FEATURES[i]));
+      }
+      catch (final SAXNotRecognizedException | SAXNotSupportedException ex)
+      {
+        // not supported by this implementation
+      }
+    return ret;
+  }
+
+  /**
+   * resets the handler properties of a released reader.
+   *
+   * @return <code>false</code> if a handler property could not be reset.
+   */
+  private static boolean _resetHandlerProperties (final XMLReader reader)
+  {
+    for (final String property : HANDLER_PROPERTIES)
+      try
+      {
+        if (reader.getProperty (property) != null)
+          reader.setProperty (property, null);
+      }
+      catch (final SAXNotRecognizedException ex)
+      {
+        // not supported by this implementation, so it can not be set either
+      }
+      catch (final SAXNotSupportedException ex)
+      {
+        return false;
+      }
+    return true;
+  }
+
+  public XMLReader obtainXMLReader () throws SAXException
+  {
+    final XMLReader released = m_aReleased.get ();
+    if (released != null)
+    {
+      m_aReleased.remove ();
+      return released;
+    }
+
+    try
+    {
+      // SAXParserFactory is not guaranteed to be thread-safe
+      final XMLReader reader;
+      synchronized (m_aFactory)
+      {
+        reader = m_aFactory.newSAXParser ().getXMLReader ();
+      }
+      if (m_aInitialFeatures == null)
+        m_aInitialFeatures = _readFeatures (reader);
+      return reader;
+    }
+    catch (final ParserConfigurationException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  @Override
+  public void releaseXMLReader (final XMLReader reader)
+  {
+    // don't keep the application's handlers alive
+    reader.setContentHandler (NULL_HANDLER);
+    reader.setErrorHandler (NULL_HANDLER);
+    reader.setEntityResolver (NULL_HANDLER);
+    reader.setDTDHandler (NULL_HANDLER);
+
+    final Boolean [] initialFeatures = m_aInitialFeatures;
+    if (initialFeatures == null ||
+        !_resetHandlerProperties (reader) ||
+        !Arrays.equals (initialFeatures, _readFeatures (reader)))
+    {
+      // the next caller would inherit the changed settings
+      return;
+    }
+    m_aReleased.set (reader);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+/**
+ * The result of validating one document out of many.
+ */
+public class DocumentVerificationResult
+{
+  private final long m_nIndex;
+  private final String m_sSystemId;
+  private final boolean m_bValid;
+  private final Exception m_aException;
+
+  /**
+   * @param index
+   *        0-based index of the document in its batch or stream.
+   * @param systemId
+   *        system ID of the document. May be <code>null</code>.
+   * @param valid
+   *        <code>true</code> if the document was valid.
+   * @param exception
+   *        the exception that prevented the validation. May be
+   *        <code>null</code>.
+   */
+  public DocumentVerificationResult (final long index,
+                                     final String systemId,
+                                     final boolean valid,
+                                     final Exception exception)
+  {
+    m_nIndex = index;
+    m_sSystemId = systemId;
+    m_bValid = valid && exception == null;
+    m_aException = exception;
+  }
+
+  /**
+   * @return 0-based index of the document in its batch or stream.
+   */
+  public long getIndex ()
+  {
+    return m_nIndex;
+  }
+
+  /**
+   * @return system ID of the document. May be <code>null</code>.
+   */
+  public String getSystemId ()
+  {
+    return m_sSystemId;
+  }
+
+  /**
+   * @return <code>true</code> if the document was valid.
+   */
+  public boolean isValid ()
+  {
+    return m_bValid;
+  }
+
+  /**
+   * @return <code>true</code> if the document could not be validated because
+   *         of an exception, e.g. an I/O error or a well-formedness error.
+   */
+  public boolean isFailed ()
+  {
+    return m_aException != null;
+  }
+
+  /**
+   * @return the exception that prevented the validation. May be
+   *         <code>null</code>.
+   */
+  public Exception getException ()
+  {
+    return m_aException;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return "[" +
+           m_nIndex +
+           "] " +
+           m_sSystemId +
+           ": " +
+           (m_aException != null ? "failed: " + m_aException : m_bValid ? "valid" : "invalid");
+  }
+}
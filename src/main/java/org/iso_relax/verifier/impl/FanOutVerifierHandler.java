@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * VerifierHandler that passes the incoming SAX2 events to any number of
+ * VerifierHandlers, e.g. to validate one document against several schemas in
+ * one pass.
+ * <p>
+ * Unlike a chain of {@link ForkContentHandler}s, every event is passed to all
+ * handlers in one loop over an array. A handler can be marked as invalid with
+ * {@link #markInvalid(int)}, typically from the error handler of its verifier
+ * (see {@link #create(Verifier[], ErrorHandler, boolean)}). If the fan-out
+ * only needs to determine validity, the events are not passed to invalid
+ * handlers anymore, which saves the work of schemas that already failed.
+ * <p>
+ * The per-schema result is available via {@link #isValid(int)} after the
+ * <code>endDocument</code> event.
+ */
+public class FanOutVerifierHandler implements VerifierHandler
+{
+  private final VerifierHandler [] m_aHandlers;
+  private final boolean [] m_aInvalid;
+  private final boolean m_bStopOnInvalid;
+  private VerifierHandler [] m_aActive;
+  private boolean m_bActiveChanged;
+
+  /**
+   * @param handlers
+   *        the handlers to receive the events, in this order. May neither be
+   *        <code>null</code> nor empty.
+   * @param stopOnInvalid
+   *        <code>true</code> to stop passing events to handlers that were
+   *        marked as invalid. Only the validity of such handlers is known
+   *        then; they don't report further errors.
+   */
+  public FanOutVerifierHandler (final VerifierHandler [] handlers, final boolean stopOnInvalid)
+  {
+    if (handlers == null || handlers.length == 0)
+      throw new IllegalArgumentException ("handlers");
+    m_aHandlers = handlers.clone ();
+    m_aInvalid = new boolean [handlers.length];
+    m_bStopOnInvalid = stopOnInvalid;
+    m_aActive = m_aHandlers;
+  }
+
+  /**
+   * creates a fan-out over the verifier handlers of the given verifiers. The
+   * error handler of every verifier is replaced by one that marks the verifier
+   * as invalid and forwards to the given error handler.
+   *
+   * @param verifiers
+   *        the verifiers. May neither be <code>null</code> nor empty.
+   * @param errorHandler
+   *        the error handler that receives the errors of all verifiers. May be
+   *        <code>null</code>.
+   * @param stopOnInvalid
+   *        <code>true</code> to stop passing events to verifiers that reported
+   *        an error.
+   */
+  public static FanOutVerifierHandler create (final Verifier [] verifiers,
+                                              final ErrorHandler errorHandler,
+                                              final boolean stopOnInvalid) throws SAXException
+  {
+    if (verifiers == null || verifiers.length == 0)
+      throw new IllegalArgumentException ("verifiers");
+
+    final VerifierHandler [] handlers = new VerifierHandler [verifiers.length];
+    for (int i = 0; i < verifiers.length; i++)
+      handlers[i] = verifiers[i].getVerifierHandler ();
+    final FanOutVerifierHandler ret = new FanOutVerifierHandler (handlers, stopOnInvalid);
+
+    final ErrorHandler target = errorHandler == null ? VerifierPool.SILENT_ERROR_HANDLER : errorHandler;
+    for (int i = 0; i < verifiers.length; i++)
+    {
+      final int index = i;
+      verifiers[i].setErrorHandler (new ErrorHandler ()
+      {
+        public void warning (final SAXParseException e) throws SAXException
+        {
+          target.warning (e);
+        }
+
+        public void error (final SAXParseException e) throws SAXException
+        {
+          ret.markInvalid (index);
+          target.error (e);
+        }
+
+        public void fatalError (final SAXParseException e) throws SAXException
+        {
+          ret.markInvalid (index);
+          target.fatalError (e);
+        }
+      });
+    }
+    return ret;
+  }
+
+  /**
+   * @return the number of handlers.
+   */
+  public int getHandlerCount ()
+  {
+    return m_aHandlers.length;
+  }
+
+  /**
+   * marks a handler as invalid for the current document. May be called while
+   * an event is dispatched.
+   *
+   * @param index
+   *        the 0-based index of the handler.
+   */
+  public void markInvalid (final int index)
+  {
+    if (!m_aInvalid[index])
+    {
+      m_aInvalid[index] = true;
+      if (m_bStopOnInvalid)
+        m_bActiveChanged = true;
+    }
+  }
+
+  /**
+   * @return the handlers that still receive events. The array is only rebuilt
+   *         between two events, so that a handler marked as invalid during an
+   *         event does not disturb the running loop.
+   */
+  private VerifierHandler [] _active ()
+  {
+    if (m_bActiveChanged)
+    {
+      m_bActiveChanged = false;
+      int n = 0;
+      for (final boolean invalid : m_aInvalid)
+        if (!invalid)
+          n++;
+      final VerifierHandler [] active = new VerifierHandler [n];
+      n = 0;
+      for (int i = 0; i < m_aHandlers.length; i++)
+        if (!m_aInvalid[i])
+          active[n++] = m_aHandlers[i];
+      m_aActive = active;
+    }
+    return m_aActive;
+  }
+
+  /**
+   * @return <b>true</b> if the document was valid against all schemas.
+   */
+  public boolean isValid () throws IllegalStateException
+  {
+    for (int i = 0; i < m_aHandlers.length; i++)
+      if (!isValid (i))
+        return false;
+    return true;
+  }
+
+  /**
+   * @param index
+   *        the 0-based index of the handler.
+   * @return <b>true</b> if the document was valid against the schema of the
+   *         given handler.
+   */
+  public boolean isValid (final int index) throws IllegalStateException
+  {
+    // handlers that were stopped never received endDocument
+    return !m_aInvalid[index] && m_aHandlers[index].isValid ();
+  }
+
+  /**
+   * @return the validity per handler, in the order of the handlers.
+   */
+  public boolean [] getValidity () throws IllegalStateException
+  {
+    final boolean [] ret = new boolean [m_aHandlers.length];
+    for (int i = 0; i < ret.length; i++)
+      ret[i] = isValid (i);
+    return ret;
+  }
+
+  public void setDocumentLocator (final Locator locator)
+  {
+    for (final VerifierHandler handler : m_aHandlers)
+      handler.setDocumentLocator (locator);
+  }
+
+  public void startDocument () throws SAXException
+  {
+    // a new document - all handlers take part again
+    for (int i = 0; i < m_aInvalid.length; i++)
+      m_aInvalid[i] = false;
+    m_aActive = m_aHandlers;
+    m_bActiveChanged = false;
+
+    for (final VerifierHandler handler : m_aHandlers)
+      handler.startDocument ();
+  }
+
+  public void endDocument () throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.endDocument ();
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.startPrefixMapping (prefix, uri);
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.endPrefixMapping (prefix);
+  }
+
+  public void startElement (final String uri,
+                            final String localName,
+                            final String qName,
+                            final Attributes attributes) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.startElement (uri, localName, qName, attributes);
+  }
+
+  public void endElement (final String uri, final String localName, final String qName) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.endElement (uri, localName, qName);
+  }
+
+  public void characters (final char ch[], final int start, final int length) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.characters (ch, start, length);
+  }
+
+  public void ignorableWhitespace (final char ch[], final int start, final int length) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.ignorableWhitespace (ch, start, length);
+  }
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.processingInstruction (target, data);
+  }
+
+  public void skippedEntity (final String name) throws SAXException
+  {
+    for (final VerifierHandler handler : _active ())
+      handler.skippedEntity (name);
+  }
+}
@@ -53,6 +53,8 @@ public class ForkContentHandler implements ContentHandler
   /**
    * Creates ForkContentHandlers so that the specified handlers will receive SAX
    * events in the order of the array.
+   *
+   * @see FanOutVerifierHandler
    */
   public static ContentHandler create (final ContentHandler [] handlers)
   {
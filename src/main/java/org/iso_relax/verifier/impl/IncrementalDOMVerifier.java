@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierConfigurationException;
+import org.iso_relax.verifier.VerifierHandler;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Validates a DOM tree that is modified in place, revalidating only the parts
+ * that changed since the last validation.
+ * <p>
+ * The tree is split into units in the same way as by
+ * {@link RecordParallelVerifier}: every element with the configured name is a
+ * unit that is validated against the unit schema as a document of its own
+ * (with all namespace declarations of its ancestors in scope), and the rest
+ * of the tree is the envelope, which is validated against the envelope schema
+ * with every unit element reported as empty element.
+ * <p>
+ * The validity of every unit is remembered. After the application modified
+ * the tree, it reports the modified nodes via {@link #markChanged(Node)}, and
+ * the next {@link #verify(Node)} only revalidates the units containing these
+ * nodes, plus the envelope if it was modified itself (e.g. because a unit was
+ * added or removed). When the envelope is revalidated, units whose in-scope
+ * namespace declarations changed are revalidated as well. Errors are only reported to the error handler when the
+ * part containing them is validated, so errors of unmodified invalid units are
+ * not reported again.
+ * <p>
+ * Like a {@link Verifier}, this class is not thread-safe.
+ */
+public class IncrementalDOMVerifier
+{
+  /**
+   * reports the namespace declarations of the ancestors of a unit before its
+   * own events.
+   */
+  private static final class NamespaceContextFilter extends XMLFilterImpl
+  {
+    private Map <String, String> m_aInScope = Collections.emptyMap ();
+
+    @Override
+    public void startDocument () throws SAXException
+    {
+      super.startDocument ();
+      for (final Map.Entry <String, String> e : m_aInScope.entrySet ())
+        super.startPrefixMapping (e.getKey (), e.getValue ());
+    }
+
+    @Override
+    public void endDocument () throws SAXException
+    {
+      for (final String prefix : m_aInScope.keySet ())
+        super.endPrefixMapping (prefix);
+      super.endDocument ();
+    }
+  }
+
+  private final Verifier m_aEnvelopeVerifier;
+  private final Verifier m_aUnitVerifier;
+  private final String m_sUnitNamespaceURI;
+  private final String m_sUnitLocalName;
+  private final SAXEventGenerator m_aEnvelopeGenerator;
+  private final SAXEventGenerator m_aUnitGenerator;
+  private final NamespaceContextFilter m_aContextFilter = new NamespaceContextFilter ();
+
+  private final List <Element> m_aUnits = new ArrayList <> ();
+  private final Map <Element, Boolean> m_aUnitValidity = new WeakHashMap <> ();
+  /** the in-scope namespace declarations each unit was validated with */
+  private final Map <Element, Map <String, String>> m_aUnitContexts = new WeakHashMap <> ();
+  private final Set <Element> m_aDirtyUnits = Collections.newSetFromMap (new WeakHashMap <Element, Boolean> ());
+  private ErrorHandler m_aErrorHandler = VerifierPool.SILENT_ERROR_HANDLER;
+  private Node m_aRoot;
+  private boolean m_bEnvelopeDirty = true;
+  private boolean m_bEnvelopeValid;
+  private int m_nRevalidatedUnits;
+
+  /**
+   * @param envelopeSchema
+   *        the schema of the envelope. It must accept empty unit elements. May
+   *        not be <code>null</code>.
+   * @param unitSchema
+   *        the schema each unit element is validated against. May not be
+   *        <code>null</code>.
+   * @param unitNamespaceURI
+   *        the namespace URI of the unit elements. Use the empty string for no
+   *        namespace.
+   * @param unitLocalName
+   *        the local name of the unit elements.
+   */
+  public IncrementalDOMVerifier (final Schema envelopeSchema,
+                                 final Schema unitSchema,
+                                 final String unitNamespaceURI,
+                                 final String unitLocalName) throws VerifierConfigurationException
+  {
+    if (unitLocalName == null)
+      throw new IllegalArgumentException ("unitLocalName");
+    m_aEnvelopeVerifier = envelopeSchema.newVerifier ();
+    m_aUnitVerifier = unitSchema.newVerifier ();
+    m_sUnitNamespaceURI = unitNamespaceURI == null ? "" : unitNamespaceURI;
+    m_sUnitLocalName = unitLocalName;
+
+    m_aEnvelopeGenerator = new SAXEventGenerator (null);
+    m_aEnvelopeGenerator.setDocumentEmulation (true);
+    // the content of the units is not part of the envelope
+    m_aEnvelopeGenerator.setContentSkipFilter (this::_isUnit);
+    m_aUnitGenerator = new SAXEventGenerator (null);
+    m_aUnitGenerator.setDocumentEmulation (true);
+  }
+
+  private boolean _isUnit (final Node node)
+  {
+    if (node.getNodeType () != Node.ELEMENT_NODE)
+      return false;
+    final String uri = node.getNamespaceURI ();
+    final String localName = node.getLocalName () != null ? node.getLocalName () : node.getNodeName ();
+    return m_sUnitLocalName.equals (localName) && m_sUnitNamespaceURI.equals (uri == null ? "" : uri);
+  }
+
+  /**
+   * collects the outermost units of the tree, in document order.
+   */
+  private void _collectUnits (final Node root)
+  {
+    m_aUnits.clear ();
+    Node cur = root;
+    while (cur != null)
+    {
+      if (_isUnit (cur))
+        m_aUnits.add ((Element) cur);
+      else
+        if (cur.getFirstChild () != null)
+        {
+          cur = cur.getFirstChild ();
+          continue;
+        }
+      while (cur != root && cur.getNextSibling () == null)
+        cur = cur.getParentNode ();
+      cur = cur == root ? null : cur.getNextSibling ();
+    }
+  }
+
+  /**
+   * @return the namespace declarations of the ancestors of the unit. The
+   *         nearest one of every prefix wins.
+   */
+  private static Map <String, String> _getNamespaceContext (final Element unit)
+  {
+    final Map <String, String> ret = new LinkedHashMap <> ();
+    for (Node cur = unit.getParentNode (); cur != null; cur = cur.getParentNode ())
+      if (cur.getNodeType () == Node.ELEMENT_NODE)
+      {
+        final NamedNodeMap attrs = cur.getAttributes ();
+        for (int i = 0; i < attrs.getLength (); i++)
+        {
+          final Node attr = attrs.item (i);
+          final String name = attr.getNodeName ();
+          if (name.equals ("xmlns"))
+            ret.putIfAbsent ("", attr.getNodeValue ());
+          else
+            if (name.startsWith ("xmlns:"))
+              ret.putIfAbsent (name.substring (6), attr.getNodeValue ());
+        }
+      }
+    return ret;
+  }
+
+  /**
+   * sets the error handler that receives the errors of all revalidated parts.
+   *
+   * @param handler
+   *        the error handler. May be <code>null</code>.
+   */
+  public void setErrorHandler (final ErrorHandler handler)
+  {
+    m_aErrorHandler = handler == null ? VerifierPool.SILENT_ERROR_HANDLER : handler;
+  }
+
+  /**
+   * reports that the given node was modified, added, or is the parent of a
+   * removed node.
+   *
+   * @param node
+   *        the modified node. For a modified attribute, the attribute node or
+   *        its element. A modified namespace declaration of an envelope element
+   *        is reported as well, which revalidates the units below it whose
+   *        in-scope declarations changed.
+   */
+  public void markChanged (final Node node)
+  {
+    final Node start = node instanceof Attr ? ((Attr) node).getOwnerElement () : node;
+    // the outermost unit is the one that is validated on its own
+    Element unit = null;
+    for (Node cur = start; cur != null; cur = cur.getParentNode ())
+      if (_isUnit (cur))
+        unit = (Element) cur;
+
+    if (unit != null)
+      m_aDirtyUnits.add (unit);
+    // the envelope sees the unit elements themselves, but not their content
+    if (unit == null || unit == start)
+      m_bEnvelopeDirty = true;
+  }
+
+  /**
+   * forgets all remembered validation results, so that the next validation
+   * validates the whole tree.
+   */
+  public void invalidateAll ()
+  {
+    m_aUnits.clear ();
+    m_aUnitValidity.clear ();
+    m_aUnitContexts.clear ();
+    m_aDirtyUnits.clear ();
+    m_bEnvelopeDirty = true;
+  }
+
+  /**
+   * validates the tree. The first validation of a tree validates all of it,
+   * subsequent validations of the same tree only the parts reported by
+   * {@link #markChanged(Node)}.
+   *
+   * @param root
+   *        the root of the tree, usually the document node.
+   * @return <b>true</b> if the tree is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final Node root) throws SAXException
+  {
+    if (root != m_aRoot)
+    {
+      invalidateAll ();
+      m_aRoot = root;
+    }
+    m_nRevalidatedUnits = 0;
+
+    final boolean envelopeChecked = m_bEnvelopeDirty;
+    if (envelopeChecked)
+    {
+      _collectUnits (root);
+      m_aEnvelopeVerifier.setErrorHandler (m_aErrorHandler);
+      m_aEnvelopeGenerator.setErrorHandler (m_aErrorHandler);
+      final VerifierHandler handler = m_aEnvelopeVerifier.getVerifierHandler ();
+      m_aEnvelopeGenerator.reset (root);
+      try
+      {
+        m_aEnvelopeGenerator.makeEvent (handler);
+      }
+      finally
+      {
+        m_aEnvelopeGenerator.reset (null);
+      }
+      m_bEnvelopeValid = handler.isValid ();
+      m_bEnvelopeDirty = false;
+    }
+
+    boolean valid = m_bEnvelopeValid;
+    for (final Element unit : m_aUnits)
+    {
+      Boolean unitValid = m_aUnitValidity.get (unit);
+      boolean dirty = unitValid == null || m_aDirtyUnits.contains (unit);
+      Map <String, String> context = null;
+      if (dirty || envelopeChecked)
+      {
+        // a changed namespace declaration of an ancestor changes the unit
+        context = _getNamespaceContext (unit);
+        if (!context.equals (m_aUnitContexts.get (unit)))
+          dirty = true;
+      }
+      if (dirty)
+      {
+        unitValid = Boolean.valueOf (_verifyUnit (unit, context));
+        m_aUnitValidity.put (unit, unitValid);
+        m_aUnitContexts.put (unit, context);
+        m_nRevalidatedUnits++;
+      }
+      valid &= unitValid.booleanValue ();
+    }
+    m_aDirtyUnits.clear ();
+    return valid;
+  }
+
+  private boolean _verifyUnit (final Element unit, final Map <String, String> context) throws SAXException
+  {
+    m_aContextFilter.m_aInScope = context;
+    m_aUnitVerifier.setErrorHandler (m_aErrorHandler);
+    m_aUnitGenerator.setErrorHandler (m_aErrorHandler);
+    final VerifierHandler handler = m_aUnitVerifier.getVerifierHandler ();
+    m_aContextFilter.setContentHandler (handler);
+    m_aUnitGenerator.reset (unit);
+    try
+    {
+      m_aUnitGenerator.makeEvent (m_aContextFilter);
+    }
+    finally
+    {
+      m_aUnitGenerator.reset (null);
+      m_aContextFilter.setContentHandler (null);
+      m_aContextFilter.m_aInScope = Collections.emptyMap ();
+    }
+    return handler.isValid ();
+  }
+
+  /**
+   * @return the number of units found by the last validation of the envelope.
+   */
+  public int getUnitCount ()
+  {
+    return m_aUnits.size ();
+  }
+
+  /**
+   * @return the number of units that were validated by the last call of
+   *         {@link #verify(Node)}.
+   */
+  public int getRevalidatedUnitCount ()
+  {
+    return m_nRevalidatedUnits;
+  }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.iso_relax.verifier.Verifier;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Validates a stream of concatenated XML documents that are separated by a
+ * delimiter byte sequence, e.g. messages received over one connection.
+ * <p>
+ * All documents are validated by the same {@link Verifier}, so its parser and
+ * verifier handler are reused and only reset between the documents, which is
+ * much cheaper than creating them per document. Each document is read from
+ * the stream up to the next delimiter; neither the parser nor the verifier
+ * can close the underlying stream.
+ * <p>
+ * ASCII whitespace directly after a delimiter is skipped, and segments that
+ * only consist of whitespace are ignored, so the stream may end with a
+ * delimiter. A document that is not well-formed is reported as failed, and
+ * the validation continues with the next document.
+ * <p>
+ * Like a {@link Verifier}, this class is not thread-safe.
+ */
+public class MultiDocumentVerifier
+{
+  /**
+   * The default delimiter: a single NUL byte, which can not occur in an XML
+   * document of any supported encoding except UTF-16 and UTF-32.
+   */
+  public static final byte [] DEFAULT_DELIMITER = { 0 };
+
+  private final Verifier m_aVerifier;
+  private final byte [] m_aDelimiter;
+
+  /**
+   * @param verifier
+   *        the verifier that validates all documents. May not be
+   *        <code>null</code>.
+   */
+  public MultiDocumentVerifier (final Verifier verifier)
+  {
+    this (verifier, DEFAULT_DELIMITER);
+  }
+
+  /**
+   * @param verifier
+   *        the verifier that validates all documents. May not be
+   *        <code>null</code>.
+   * @param delimiter
+   *        the byte sequence between two documents. May neither be
+   *        <code>null</code> nor empty.
+   */
+  public MultiDocumentVerifier (final Verifier verifier, final byte [] delimiter)
+  {
+    if (verifier == null)
+      throw new IllegalArgumentException ("verifier");
+    if (delimiter == null || delimiter.length == 0)
+      throw new IllegalArgumentException ("delimiter");
+    m_aVerifier = verifier;
+    m_aDelimiter = delimiter.clone ();
+  }
+
+  /**
+   * validates all documents of the stream and collects the per-document
+   * results.
+   *
+   * @param in
+   *        the stream to read. It is not closed.
+   * @param systemId
+   *        system ID used for all documents, e.g. to resolve relative
+   *        references. May be <code>null</code>.
+   * @return the results in the order of the documents plus statistics. Never
+   *         <code>null</code>.
+   */
+  public BatchVerificationResult verifyAll (final InputStream in, final String systemId) throws IOException
+  {
+    final List <DocumentVerificationResult> results = new ArrayList <> ();
+    final BatchVerificationResult stats = verifyAll (in, systemId, results::add);
+    return new BatchVerificationResult (results,
+                                        stats.getValidCount (),
+                                        stats.getInvalidCount (),
+                                        stats.getFailedCount (),
+                                        stats.getDurationNanos ());
+  }
+
+  /**
+   * validates all documents of the stream and passes each per-document result
+   * to the given listener as soon as it is available.
+   *
+   * @param in
+   *        the stream to read. It is not closed.
+   * @param systemId
+   *        system ID used for all documents, e.g. to resolve relative
+   *        references. May be <code>null</code>.
+   * @param listener
+   *        receives the per-document results. May not be <code>null</code>.
+   * @return the statistics without per-document results. Never
+   *         <code>null</code>.
+   * @exception IOException
+   *            if reading the stream fails. Results of the documents validated
+   *            so far were already passed to the listener.
+   */
+  public BatchVerificationResult verifyAll (final InputStream in,
+                                            final String systemId,
+                                            final Consumer <? super DocumentVerificationResult> listener) throws IOException
+  {
+    final DelimitedInputStream segments = new DelimitedInputStream (in, m_aDelimiter);
+    long valid = 0;
+    long invalid = 0;
+    long failed = 0;
+    long index = 0;
+
+    final long start = System.nanoTime ();
+    while (segments.nextSegment ())
+    {
+      final InputSource source = new InputSource (systemId);
+      source.setByteStream (segments);
+
+      DocumentVerificationResult result;
+      try
+      {
+        result = new DocumentVerificationResult (index, systemId, m_aVerifier.verify (source), null);
+      }
+      catch (final SAXException ex)
+      {
+        result = new DocumentVerificationResult (index, systemId, false, ex);
+      }
+      index++;
+      if (result.isFailed ())
+        failed++;
+      else
+        if (result.isValid ())
+          valid++;
+        else
+          invalid++;
+      listener.accept (result);
+    }
+    return new BatchVerificationResult (new ArrayList <> (0), valid, invalid, failed, System.nanoTime () - start);
+  }
+
+  /**
+   * Reads one delimited segment of the underlying stream after the other.
+   */
+  private static final class DelimitedInputStream extends InputStream
+  {
+    private final InputStream m_aIn;
+    private final byte [] m_aDelimiter;
+    private final byte [] m_aBuffer;
+    private int m_nPos;
+    private int m_nLimit;
+    private boolean m_bEOF;
+    private boolean m_bSegmentEnded = true;
+
+    DelimitedInputStream (final InputStream in, final byte [] delimiter)
+    {
+      m_aIn = in;
+      m_aDelimiter = delimiter;
+      m_aBuffer = new byte [Math.max (64 * 1024, delimiter.length * 2)];
+    }
+
+    /**
+     * reads more bytes into the buffer, keeping the unread ones.
+     *
+     * @return <code>false</code> at the end of the underlying stream.
+     */
+    private boolean _fill () throws IOException
+    {
+      if (m_bEOF)
+        return false;
+      if (m_nPos > 0)
+      {
+        System.arraycopy (m_aBuffer, m_nPos, m_aBuffer, 0, m_nLimit - m_nPos);
+        m_nLimit -= m_nPos;
+        m_nPos = 0;
+      }
+      final int n = m_aIn.read (m_aBuffer, m_nLimit, m_aBuffer.length - m_nLimit);
+      if (n < 0)
+      {
+        m_bEOF = true;
+        return false;
+      }
+      m_nLimit += n;
+      return true;
+    }
+
+    private boolean _isDelimiterAt (final int index)
+    {
+      for (int i = 0; i < m_aDelimiter.length; i++)
+        if (m_aBuffer[index + i] != m_aDelimiter[i])
+          return false;
+      return true;
+    }
+
+    /**
+     * skips the rest of the current segment, and the whitespace at the start
+     * of the next one.
+     *
+     * @return <code>false</code> if there is no further segment with content.
+     */
+    boolean nextSegment () throws IOException
+    {
+      while (!m_bSegmentEnded)
+        skip (Long.MAX_VALUE);
+      while (true)
+      {
+        if (m_nPos == m_nLimit && !_fill ())
+          return false;
+        if (m_nLimit - m_nPos < m_aDelimiter.length && !m_bEOF)
+        {
+          _fill ();
+          continue;
+        }
+        if (m_nLimit - m_nPos >= m_aDelimiter.length && _isDelimiterAt (m_nPos))
+        {
+          // empty segment
+          m_nPos += m_aDelimiter.length;
+          continue;
+        }
+        final byte b = m_aBuffer[m_nPos];
+        if (b == ' ' || b == '\t' || b == '\r' || b == '\n')
+        {
+          m_nPos++;
+          continue;
+        }
+        m_bSegmentEnded = false;
+        return true;
+      }
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      final byte [] b = new byte [1];
+      return read (b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read (final byte [] b, final int off, final int len) throws IOException
+    {
+      if (len == 0)
+        return 0;
+      while (!m_bSegmentEnded)
+      {
+        final int lastStart = m_nLimit - m_aDelimiter.length;
+        for (int i = m_nPos; i <= lastStart; i++)
+          if (_isDelimiterAt (i))
+          {
+            if (i == m_nPos)
+            {
+              m_nPos += m_aDelimiter.length;
+              m_bSegmentEnded = true;
+              return -1;
+            }
+            return _copy (b, off, Math.min (len, i - m_nPos));
+          }
+
+        // the last bytes may be the start of a delimiter
+        final int safe = m_bEOF ? m_nLimit - m_nPos : m_nLimit - m_nPos - (m_aDelimiter.length - 1);
+        if (safe > 0)
+          return _copy (b, off, Math.min (len, safe));
+        if (!_fill () && m_nPos == m_nLimit)
+          m_bSegmentEnded = true;
+      }
+      return -1;
+    }
+
+    private int _copy (final byte [] b, final int off, final int n)
+    {
+      System.arraycopy (m_aBuffer, m_nPos, b, off, n);
+      m_nPos += n;
+      return n;
+    }
+
+    @Override
+    public int available ()
+    {
+      return 0;
+    }
+
+    @Override
+    public void close ()
+    {
+      // the parser must not close the underlying stream
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.concurrent.Executor;
+
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * VerifierHandler that passes the incoming SAX2 events to several
+ * VerifierHandlers that run in parallel, so that validating a document
+ * against several schemas takes about as long as validating it against the
+ * slowest one.
+ * <p>
+ * The events are recorded in batches (see {@link SAXEventRecorder}) on the
+ * calling thread and replayed by one worker task per handler. The workers are
+ * started on the given executor at <code>startDocument</code>, and
+ * <code>endDocument</code> waits for all of them to finish, so the results are
+ * available afterwards as usual. If the workers fall behind, the calling
+ * thread waits until there is space in their queues.
+ * <p>
+ * The handlers receive a new locator with every batch, which reports the
+ * recorded location of the current event. The error handlers of the verifiers
+ * are called from the worker threads, so they must be thread-safe. The first
+ * exception thrown by a handler is rethrown by <code>endDocument</code>.
+ * <p>
+ * If the document is not processed up to <code>endDocument</code> (e.g.
+ * because it is not well-formed), {@link #abort()} must be called. Otherwise
+ * the workers keep waiting for further events and occupy their executor
+ * threads until the next <code>startDocument</code>, which aborts them as
+ * well. The workers do not time out by themselves, as the events of a
+ * document may legitimately arrive slowly.
+ */
+public class ParallelFanOutVerifierHandler implements VerifierHandler
+{
+  /** The number of events per batch */
+  public static final int BATCH_SIZE = 512;
+  /** The number of batches a worker may fall behind */
+  public static final int QUEUE_CAPACITY = 8;
+
+  private final VerifierHandler [] m_aHandlers;
+  private final Executor m_aExecutor;
+  private Locator m_aLocator;
+  private SAXBatchPipeline m_aPipeline;
+
+  /**
+   * @param handlers
+   *        the handlers to receive the events. May neither be
+   *        <code>null</code> nor empty.
+   * @param executor
+   *        the executor that runs one worker task per handler for every
+   *        document. It must be able to run all of them at the same time.
+   */
+  public ParallelFanOutVerifierHandler (final VerifierHandler [] handlers, final Executor executor)
+  {
+    if (handlers == null || handlers.length == 0)
+      throw new IllegalArgumentException ("handlers");
+    if (executor == null)
+      throw new IllegalArgumentException ("executor");
+    m_aHandlers = handlers.clone ();
+    m_aExecutor = executor;
+  }
+
+  /**
+   * creates a parallel fan-out over the verifier handlers of the given
+   * verifiers.
+   *
+   * @param verifiers
+   *        the verifiers. May neither be <code>null</code> nor empty.
+   * @param errorHandler
+   *        the thread-safe error handler that receives the errors of all
+   *        verifiers. May be <code>null</code> to keep the error handlers of
+   *        the verifiers.
+   * @param executor
+   *        the executor that runs one worker task per verifier for every
+   *        document.
+   */
+  public static ParallelFanOutVerifierHandler create (final Verifier [] verifiers,
+                                                      final ErrorHandler errorHandler,
+                                                      final Executor executor) throws SAXException
+  {
+    if (verifiers == null || verifiers.length == 0)
+      throw new IllegalArgumentException ("verifiers");
+
+    final VerifierHandler [] handlers = new VerifierHandler [verifiers.length];
+    for (int i = 0; i < verifiers.length; i++)
+    {
+      if (errorHandler != null)
+        verifiers[i].setErrorHandler (errorHandler);
+      handlers[i] = verifiers[i].getVerifierHandler ();
+    }
+    return new ParallelFanOutVerifierHandler (handlers, executor);
+  }
+
+  /**
+   * @return the number of handlers.
+   */
+  public int getHandlerCount ()
+  {
+    return m_aHandlers.length;
+  }
+
+  /**
+   * @return <b>true</b> if the document was valid against all schemas.
+   */
+  public boolean isValid () throws IllegalStateException
+  {
+    for (final VerifierHandler handler : m_aHandlers)
+      if (!handler.isValid ())
+        return false;
+    return true;
+  }
+
+  /**
+   * @param index
+   *        the 0-based index of the handler.
+   * @return <b>true</b> if the document was valid against the schema of the
+   *         given handler.
+   */
+  public boolean isValid (final int index) throws IllegalStateException
+  {
+    return m_aHandlers[index].isValid ();
+  }
+
+  /**
+   * stops the workers of the current document, e.g. after the parser failed,
+   * and waits until the handlers are not used anymore. Does nothing if no
+   * document is in progress.
+   */
+  public void abort ()
+  {
+    if (m_aPipeline != null)
+    {
+      m_aPipeline.abort ();
+      m_aPipeline = null;
+    }
+  }
+
+  public void setDocumentLocator (final Locator locator)
+  {
+    m_aLocator = locator;
+  }
+
+  public void startDocument () throws SAXException
+  {
+    abort ();
+    // a fresh pipeline per document, as the workers of an aborted document may
+    // still be running
+    m_aPipeline = new SAXBatchPipeline (m_aHandlers, m_aExecutor, BATCH_SIZE, QUEUE_CAPACITY, m_aLocator);
+    m_aPipeline.getBatch ().startDocument ();
+  }
+
+  public void endDocument () throws SAXException
+  {
+    final SAXBatchPipeline pipeline = m_aPipeline;
+    m_aPipeline = null;
+    pipeline.getBatch ().endDocument ();
+    pipeline.end ();
+    pipeline.await ();
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    m_aPipeline.getBatch ().startPrefixMapping (prefix, uri);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    m_aPipeline.getBatch ().endPrefixMapping (prefix);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void startElement (final String uri,
+                            final String localName,
+                            final String qName,
+                            final Attributes attributes) throws SAXException
+  {
+    m_aPipeline.getBatch ().startElement (uri, localName, qName, attributes);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void endElement (final String uri, final String localName, final String qName) throws SAXException
+  {
+    m_aPipeline.getBatch ().endElement (uri, localName, qName);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void characters (final char ch[], final int start, final int length) throws SAXException
+  {
+    m_aPipeline.getBatch ().characters (ch, start, length);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void ignorableWhitespace (final char ch[], final int start, final int length) throws SAXException
+  {
+    m_aPipeline.getBatch ().ignorableWhitespace (ch, start, length);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    m_aPipeline.getBatch ().processingInstruction (target, data);
+    m_aPipeline.afterEvent ();
+  }
+
+  public void skippedEntity (final String name) throws SAXException
+  {
+    m_aPipeline.getBatch ().skippedEntity (name);
+    m_aPipeline.afterEvent ();
+  }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.iso_relax.verifier.Verifier;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Validates a document that arrives in chunks, e.g. the body of a network
+ * request, without buffering the whole document first.
+ * <p>
+ * The producer pushes the chunks with {@link #feed(ByteBuffer)} (or
+ * {@link #feed(CharBuffer)}) and finally calls {@link #endOfInput()}. Neither
+ * method blocks, so they can be called from an event loop. As SAX parsers can
+ * only pull their input, the document is parsed by a task on the given
+ * executor, which reads the queued chunks and passes the events to the
+ * verifier handler as soon as they can be parsed.
+ * <p>
+ * If the parsing falls behind, the producer is asked to pause: once
+ * <code>capacity</code> chunks are queued, {@link #isWritable()} returns
+ * <code>false</code> until half of them were parsed. Every change is reported
+ * to the writability listener (see {@link #setWritabilityListener(Runnable)}),
+ * e.g. to switch off reading from a connection. Producers that may block can
+ * use {@link #feedBlocking(ByteBuffer)} instead, which waits until the push
+ * verifier is writable.
+ * <p>
+ * The producer can check {@link #hasErrors()} after every chunk to reject an
+ * invalid document before it was received completely, and then call
+ * {@link #abort()}. With the {@link VerifierImpl#FEATURE_FAIL_FAST} feature
+ * enabled on the verifier, the parsing additionally stops at the first error
+ * and further chunks are discarded.
+ * <p>
+ * The methods of this class are meant to be called by a single producer
+ * thread. The verifier must not be used otherwise until the result is
+ * complete; its error handler is restored afterwards. A push verifier validates
+ * exactly one document.
+ */
+public class PushVerifier
+{
+  /** The default maximum number of queued chunks */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  private static final ByteBuffer END_OF_INPUT = ByteBuffer.allocate (0);
+  private static final ByteBuffer ABORTED = ByteBuffer.allocate (0);
+
+  private final Verifier m_aVerifier;
+  private final ErrorHandler m_aErrorHandler;
+  private final Executor m_aExecutor;
+  private final int m_nCapacity;
+  private final BlockingQueue <Buffer> m_aChunks = new LinkedBlockingQueue <> ();
+  private final Object m_aWritableLock = new Object ();
+  private volatile boolean m_bWritable = true;
+  private volatile Runnable m_aWritabilityListener;
+  private final CompletableFuture <Boolean> m_aResult = new CompletableFuture <> ();
+  private volatile boolean m_bHasErrors;
+  private String m_sSystemId;
+  private boolean m_bCharMode;
+  private boolean m_bStarted;
+  private boolean m_bEnded;
+
+  /**
+   * Creates a push verifier that parses on a new daemon thread.
+   *
+   * @param verifier
+   *        the verifier to use. May not be <code>null</code>.
+   */
+  public PushVerifier (final Verifier verifier)
+  {
+    this (verifier, null, r -> {
+      final Thread t = new Thread (r, "PushVerifier");
+      t.setDaemon (true);
+      t.start ();
+    });
+  }
+
+  /**
+   * @param verifier
+   *        the verifier to use. Its error handler is replaced. May not be
+   *        <code>null</code>.
+   * @param errorHandler
+   *        the error handler that receives the errors and warnings of the
+   *        validation. It is called by the parsing thread. May be
+   *        <code>null</code>.
+   * @param executor
+   *        the executor that runs the parsing task. As the task blocks while
+   *        it waits for chunks, this should not be a pool with few threads.
+   *        See {@link VerificationService#newVirtualThreadExecutor(int)}.
+   */
+  public PushVerifier (final Verifier verifier, final ErrorHandler errorHandler, final Executor executor)
+  {
+    this (verifier, errorHandler, executor, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param verifier
+   *        the verifier to use. Its error handler is replaced until the
+   *        validation is complete. May not be <code>null</code>.
+   * @param errorHandler
+   *        the error handler that receives the errors and warnings of the
+   *        validation. It is called by the parsing thread. May be
+   *        <code>null</code>.
+   * @param executor
+   *        the executor that runs the parsing task. As the task blocks while
+   *        it waits for chunks, this should not be a pool with few threads.
+   *        See {@link VerificationService#newVirtualThreadExecutor(int)}.
+   * @param capacity
+   *        the number of queued chunks at which the push verifier stops being
+   *        writable. Must be &gt; 0.
+   */
+  public PushVerifier (final Verifier verifier,
+                       final ErrorHandler errorHandler,
+                       final Executor executor,
+                       final int capacity)
+  {
+    if (verifier == null)
+      throw new IllegalArgumentException ("verifier");
+    if (executor == null)
+      throw new IllegalArgumentException ("executor");
+    if (capacity <= 0)
+      throw new IllegalArgumentException ("capacity must be > 0: " + capacity);
+    m_nCapacity = capacity;
+    m_aVerifier = verifier;
+    m_aErrorHandler = errorHandler == null ? VerifierPool.SILENT_ERROR_HANDLER : errorHandler;
+    m_aExecutor = executor;
+  }
+
+  /**
+   * sets the system ID of the document, which is used to resolve relative
+   * references. Must be called before the first chunk is fed.
+   */
+  public void setSystemId (final String systemId)
+  {
+    if (m_bStarted)
+      throw new IllegalStateException ("Parsing has already started");
+    m_sSystemId = systemId;
+  }
+
+  /**
+   * sets a listener that is called whenever {@link #isWritable()} changes. It
+   * is called by the producer thread or by the parsing thread, so it should
+   * only schedule the reaction on the thread of the producer, which then
+   * checks {@link #isWritable()} again.
+   *
+   * @param listener
+   *        the listener. May be <code>null</code>.
+   */
+  public void setWritabilityListener (final Runnable listener)
+  {
+    m_aWritabilityListener = listener;
+  }
+
+  /**
+   * @return <code>false</code> if the producer should pause, because the
+   *         parsing fell behind. Further chunks are still accepted.
+   */
+  public boolean isWritable ()
+  {
+    return m_bWritable;
+  }
+
+  /**
+   * updates the writability from the current queue size.
+   *
+   * @param force
+   *        <code>true</code> to make it writable regardless of the queue size,
+   *        e.g. because the validation completed.
+   */
+  private void _updateWritable (final boolean force)
+  {
+    synchronized (m_aWritableLock)
+    {
+      final int size = m_aChunks.size ();
+      final boolean writable = force || (m_bWritable ? size < m_nCapacity : size <= m_nCapacity / 2);
+      if (writable == m_bWritable)
+        return;
+      m_bWritable = writable;
+      m_aWritableLock.notifyAll ();
+    }
+    final Runnable listener = m_aWritabilityListener;
+    if (listener != null)
+      listener.run ();
+  }
+
+  private void _awaitWritable () throws InterruptedException
+  {
+    synchronized (m_aWritableLock)
+    {
+      while (!m_bWritable)
+        m_aWritableLock.wait ();
+    }
+  }
+
+  /**
+   * feeds the next chunk of the document as bytes. The encoding is detected by
+   * the parser as usual. This method does not block; the producer should
+   * pause while {@link #isWritable()} returns <code>false</code>.
+   *
+   * @param chunk
+   *        the chunk. Its remaining bytes are copied, so the buffer can be
+   *        reused by the caller afterwards.
+   * @return <code>false</code> if the validation has already completed (e.g.
+   *         because it stopped at the first error) and the chunk was
+   *         discarded.
+   */
+  public boolean feed (final ByteBuffer chunk)
+  {
+    final ByteBuffer copy = ByteBuffer.allocate (chunk.remaining ());
+    copy.put (chunk);
+    copy.flip ();
+    return _feed (copy, false);
+  }
+
+  /**
+   * feeds the next chunk of the document as bytes like
+   * {@link #feed(ByteBuffer)}, but first waits until the push verifier is
+   * writable. Must not be called from an event loop.
+   *
+   * @exception InterruptedException
+   *            if interrupted while waiting.
+   */
+  public boolean feedBlocking (final ByteBuffer chunk) throws InterruptedException
+  {
+    _awaitWritable ();
+    return feed (chunk);
+  }
+
+  /**
+   * feeds the next chunk of the document as characters. Byte and character
+   * chunks can not be mixed in one document. This method does not block; the
+   * producer should pause while {@link #isWritable()} returns
+   * <code>false</code>.
+   *
+   * @param chunk
+   *        the chunk. Its remaining characters are copied, so the buffer can be
+   *        reused by the caller afterwards.
+   * @return <code>false</code> if the validation has already completed (e.g.
+   *         because it stopped at the first error) and the chunk was
+   *         discarded.
+   */
+  public boolean feed (final CharBuffer chunk)
+  {
+    final CharBuffer copy = CharBuffer.allocate (chunk.remaining ());
+    copy.put (chunk);
+    copy.flip ();
+    return _feed (copy, true);
+  }
+
+  /**
+   * feeds the next chunk of the document as characters like
+   * {@link #feed(CharBuffer)}, but first waits until the push verifier is
+   * writable. Must not be called from an event loop.
+   *
+   * @exception InterruptedException
+   *            if interrupted while waiting.
+   */
+  public boolean feedBlocking (final CharBuffer chunk) throws InterruptedException
+  {
+    _awaitWritable ();
+    return feed (chunk);
+  }
+
+  private boolean _feed (final Buffer chunk, final boolean charMode)
+  {
+    if (m_bEnded)
+      throw new IllegalStateException ("The end of the input was already signaled");
+    if (!m_bStarted)
+      _start (charMode);
+    else
+      if (charMode != m_bCharMode)
+        throw new IllegalStateException ("Byte and character chunks can not be mixed");
+
+    if (m_aResult.isDone ())
+      return false;
+    if (chunk.hasRemaining ())
+    {
+      m_aChunks.offer (chunk);
+      _updateWritable (false);
+    }
+    return true;
+  }
+
+  private void _start (final boolean charMode)
+  {
+    m_bStarted = true;
+    m_bCharMode = charMode;
+
+    final InputSource source = new InputSource (m_sSystemId);
+    if (charMode)
+      source.setCharacterStream (new ChunkReader ());
+    else
+      source.setByteStream (new ChunkInputStream ());
+
+    final ErrorHandler original = m_aVerifier instanceof VerifierImpl ? ((VerifierImpl) m_aVerifier).getErrorHandler ()
+                                                                      : VerifierPool.SILENT_ERROR_HANDLER;
+    m_aVerifier.setErrorHandler (new ErrorHandler ()
+    {
+      public void warning (final SAXParseException e) throws SAXException
+      {
+        m_aErrorHandler.warning (e);
+      }
+
+      public void error (final SAXParseException e) throws SAXException
+      {
+        m_bHasErrors = true;
+        m_aErrorHandler.error (e);
+      }
+
+      public void fatalError (final SAXParseException e) throws SAXException
+      {
+        m_bHasErrors = true;
+        m_aErrorHandler.fatalError (e);
+      }
+    });
+
+    m_aExecutor.execute ( () -> {
+      Boolean valid = null;
+      Throwable failure = null;
+      try
+      {
+        valid = Boolean.valueOf (m_aVerifier.verify (source));
+      }
+      catch (final Throwable t)
+      {
+        failure = t;
+      }
+      // before completing, as the verifier may be reused right afterwards
+      m_aVerifier.setErrorHandler (original);
+      if (failure != null)
+        m_aResult.completeExceptionally (failure);
+      else
+        m_aResult.complete (valid);
+      // the remaining chunks are not needed anymore
+      m_aChunks.clear ();
+      _updateWritable (true);
+    });
+  }
+
+  /**
+   * signals that the document is complete.
+   *
+   * @return the result, see {@link #getResult()}.
+   */
+  public CompletableFuture <Boolean> endOfInput ()
+  {
+    if (!m_bEnded)
+    {
+      if (!m_bStarted)
+        _start (false);
+      m_bEnded = true;
+      m_aChunks.offer (END_OF_INPUT);
+    }
+    return m_aResult;
+  }
+
+  /**
+   * stops the validation, e.g. because the document was rejected or the
+   * connection was closed. The result completes exceptionally.
+   */
+  public void abort ()
+  {
+    m_bEnded = true;
+    if (m_bStarted)
+    {
+      // the queued chunks are not needed anymore
+      m_aChunks.clear ();
+      m_aChunks.offer (ABORTED);
+    }
+    else
+      m_aResult.cancel (false);
+    _updateWritable (true);
+  }
+
+  /**
+   * @return <code>true</code> if at least one error or fatal error was
+   *         reported so far. The document is invalid in this case.
+   */
+  public boolean hasErrors ()
+  {
+    return m_bHasErrors;
+  }
+
+  /**
+   * @return a future that completes with <b>true</b> if the document is valid
+   *         and <b>false</b> if otherwise, or exceptionally with the exception
+   *         thrown by the validation.
+   */
+  public CompletableFuture <Boolean> getResult ()
+  {
+    return m_aResult;
+  }
+
+  /**
+   * takes the next non-empty chunk from the queue.
+   *
+   * @return <code>null</code> at the end of the input.
+   */
+  private Buffer _takeChunk () throws IOException
+  {
+    final Buffer chunk;
+    try
+    {
+      chunk = m_aChunks.take ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new InterruptedIOException ("Interrupted while waiting for input");
+    }
+    _updateWritable (false);
+    if (chunk == ABORTED)
+      throw new IOException ("The input was aborted");
+    if (chunk == END_OF_INPUT)
+    {
+      // keep the marker for subsequent reads
+      m_aChunks.offer (END_OF_INPUT);
+      return null;
+    }
+    return chunk;
+  }
+
+  private final class ChunkInputStream extends InputStream
+  {
+    private ByteBuffer m_aCurrent;
+
+    private boolean _ensureData () throws IOException
+    {
+      while (m_aCurrent == null || !m_aCurrent.hasRemaining ())
+      {
+        m_aCurrent = (ByteBuffer) _takeChunk ();
+        if (m_aCurrent == null)
+          return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      return _ensureData () ? m_aCurrent.get () & 0xff : -1;
+    }
+
+    @Override
+    public int read (final byte [] b, final int off, final int len) throws IOException
+    {
+      if (len == 0)
+        return 0;
+      if (!_ensureData ())
+        return -1;
+      // return what is available instead of waiting for more chunks
+      final int n = Math.min (len, m_aCurrent.remaining ());
+      m_aCurrent.get (b, off, n);
+      return n;
+    }
+  }
+
+  private final class ChunkReader extends Reader
+  {
+    private CharBuffer m_aCurrent;
+
+    private boolean _ensureData () throws IOException
+    {
+      while (m_aCurrent == null || !m_aCurrent.hasRemaining ())
+      {
+        m_aCurrent = (CharBuffer) _takeChunk ();
+        if (m_aCurrent == null)
+          return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int read (final char [] cbuf, final int off, final int len) throws IOException
+    {
+      if (len == 0)
+        return 0;
+      if (!_ensureData ())
+        return -1;
+      // return what is available instead of waiting for more chunks
+      final int n = Math.min (len, m_aCurrent.remaining ());
+      m_aCurrent.get (cbuf, off, n);
+      return n;
+    }
+
+    @Override
+    public void close ()
+    {}
+  }
+}
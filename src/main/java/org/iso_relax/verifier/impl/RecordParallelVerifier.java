@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierConfigurationException;
+import org.iso_relax.verifier.VerifierException;
+import org.iso_relax.verifier.VerifierHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Validates large documents that consist of an envelope with many repeated
+ * record elements, by validating the records in parallel.
+ * <p>
+ * The envelope is validated against the envelope schema as usual, except that
+ * every record element is passed to it without any content, so the envelope
+ * schema must accept empty record elements. The subtree of every record
+ * element is recorded and validated on a worker thread against the record
+ * schema, as if it were a document of its own. Like
+ * {@link org.iso_relax.dispatcher.impl.DispatcherImpl#switchVerifier}, the
+ * record verifier is first informed about all prefix mappings that are in
+ * scope at the record element.
+ * <p>
+ * All errors are merged into one {@link ValidationReport}, ordered by their
+ * location in the document.
+ * <p>
+ * The records are validated on the executor passed to the constructor, or on
+ * a pool of daemon threads owned by the instance, whose idle threads
+ * terminate after a minute. The documents are parsed with the
+ * {@link XMLReaderProvider} of the envelope verifier.
+ * <p>
+ * This class is thread-safe, so one instance can validate several documents
+ * at the same time.
+ */
+public class RecordParallelVerifier
+{
+  private static final AtomicInteger s_aPoolCounter = new AtomicInteger ();
+
+  /**
+   * an error or warning reported by one of the verifiers.
+   */
+  private static final class Reported
+  {
+    private final ValidationReport.Severity m_eSeverity;
+    private final SAXParseException m_aException;
+    private final long m_nSequence;
+
+    Reported (final ValidationReport.Severity severity, final SAXParseException exception, final long sequence)
+    {
+      m_eSeverity = severity;
+      m_aException = exception;
+      m_nSequence = sequence;
+    }
+  }
+
+  private static final Comparator <Reported> DOCUMENT_ORDER = Comparator.<Reported> comparingInt (r -> r.m_aException.getLineNumber ())
+                                                                       .thenComparingInt (r -> r.m_aException.getColumnNumber ())
+                                                                       .thenComparingLong (r -> r.m_nSequence);
+
+  private final Schema m_aEnvelopeSchema;
+  private final String m_sRecordNamespaceURI;
+  private final String m_sRecordLocalName;
+  private final int m_nParallelism;
+  private final VerifierPool m_aRecordVerifiers;
+  private final Executor m_aExecutor;
+
+  /**
+   * @param envelopeSchema
+   *        the schema of the envelope. It must accept empty record elements.
+   *        May not be <code>null</code>.
+   * @param recordSchema
+   *        the schema each record element is validated against. May not be
+   *        <code>null</code>.
+   * @param recordNamespaceURI
+   *        the namespace URI of the record elements. Use the empty string for
+   *        no namespace.
+   * @param recordLocalName
+   *        the local name of the record elements.
+   * @param parallelism
+   *        the number of worker threads. Must be &gt; 0.
+   */
+  public RecordParallelVerifier (final Schema envelopeSchema,
+                                 final Schema recordSchema,
+                                 final String recordNamespaceURI,
+                                 final String recordLocalName,
+                                 final int parallelism)
+  {
+    this (envelopeSchema, recordSchema, recordNamespaceURI, recordLocalName, parallelism, null);
+  }
+
+  /**
+   * @param envelopeSchema
+   *        the schema of the envelope. It must accept empty record elements.
+   *        May not be <code>null</code>.
+   * @param recordSchema
+   *        the schema each record element is validated against. May not be
+   *        <code>null</code>.
+   * @param recordNamespaceURI
+   *        the namespace URI of the record elements. Use the empty string for
+   *        no namespace.
+   * @param recordLocalName
+   *        the local name of the record elements.
+   * @param parallelism
+   *        the maximum number of records validated at the same time. Must be
+   *        &gt; 0.
+   * @param executor
+   *        the executor that validates the records. May be <code>null</code>
+   *        to use a pool of <code>parallelism</code> threads owned by this
+   *        instance.
+   */
+  public RecordParallelVerifier (final Schema envelopeSchema,
+                                 final Schema recordSchema,
+                                 final String recordNamespaceURI,
+                                 final String recordLocalName,
+                                 final int parallelism,
+                                 final Executor executor)
+  {
+    if (envelopeSchema == null)
+      throw new IllegalArgumentException ("envelopeSchema");
+    if (recordLocalName == null)
+      throw new IllegalArgumentException ("recordLocalName");
+    m_aEnvelopeSchema = envelopeSchema;
+    m_sRecordNamespaceURI = recordNamespaceURI == null ? "" : recordNamespaceURI;
+    m_sRecordLocalName = recordLocalName;
+    m_nParallelism = parallelism;
+    m_aRecordVerifiers = new VerifierPool (recordSchema, parallelism);
+    m_aExecutor = executor != null ? executor : _createExecutor (parallelism);
+  }
+
+  private static Executor _createExecutor (final int parallelism)
+  {
+    final int poolId = s_aPoolCounter.incrementAndGet ();
+    final AtomicInteger threadCounter = new AtomicInteger ();
+    final ThreadFactory threadFactory = r -> {
+      final Thread t = new Thread (r, "isorelax-records-" + poolId + "-" + threadCounter.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor (parallelism,
+                                                                parallelism,
+                                                                60,
+                                                                TimeUnit.SECONDS,
+                                                                new LinkedBlockingQueue <> (),
+                                                                threadFactory);
+    // an unused instance does not keep any threads alive
+    executor.allowCoreThreadTimeOut (true);
+    return executor;
+  }
+
+  private int _getMaxInFlight ()
+  {
+    return m_nParallelism * 4;
+  }
+
+  /**
+   * @return the provider configured for the given verifier, or the default
+   *         provider for verifiers that are not derived from
+   *         {@link VerifierImpl}.
+   */
+  private static XMLReaderProvider _getReaderProvider (final Verifier verifier) throws SAXException
+  {
+    if (verifier instanceof VerifierImpl)
+      return (XMLReaderProvider) verifier.getProperty (VerifierImpl.PROPERTY_XMLREADER_PROVIDER);
+    return VerifierImpl.getDefaultXMLReaderProvider ();
+  }
+
+  /**
+   * @return the pool of record verifiers. Useful for its statistics.
+   */
+  public VerifierPool getRecordVerifierPool ()
+  {
+    return m_aRecordVerifiers;
+  }
+
+  /**
+   * Splits the parsed document into the envelope events, which are passed to
+   * the envelope verifier directly, and the record events, which are recorded
+   * and validated asynchronously.
+   */
+  private final class Splitter implements ContentHandler
+  {
+    private final VerifierHandler m_aEnvelope;
+    private final ErrorHandler m_aRecordErrorHandler;
+    // limit the number of pending records, so that memory stays bounded
+    private final Semaphore m_aInFlight = new Semaphore (_getMaxInFlight ());
+    private final AtomicBoolean m_aRecordsValid = new AtomicBoolean (true);
+    private final AtomicReference <Throwable> m_aFailure = new AtomicReference <> ();
+    private final NamespaceSupport m_aNSMap = new NamespaceSupport ();
+    private final List <String> m_aPendingPrefixes = new ArrayList <> ();
+    private Locator m_aLocator;
+    private SAXEventRecorder m_aRecorder;
+    private List <String> m_aRecordPrefixes;
+    private int m_nRecordDepth;
+
+    Splitter (final VerifierHandler envelope, final ErrorHandler recordErrorHandler)
+    {
+      m_aEnvelope = envelope;
+      m_aRecordErrorHandler = recordErrorHandler;
+    }
+
+    /**
+     * waits until all submitted records are validated.
+     */
+    void awaitRecords () throws InterruptedException
+    {
+      final int permits = _getMaxInFlight ();
+      m_aInFlight.acquire (permits);
+      m_aInFlight.release (permits);
+    }
+
+    public void setDocumentLocator (final Locator locator)
+    {
+      m_aLocator = locator;
+      m_aEnvelope.setDocumentLocator (locator);
+    }
+
+    public void startDocument () throws SAXException
+    {
+      m_aEnvelope.startDocument ();
+    }
+
+    public void endDocument () throws SAXException
+    {
+      m_aEnvelope.endDocument ();
+    }
+
+    public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.startPrefixMapping (prefix, uri);
+      else
+      {
+        // declared on the next element, which may be a record
+        m_aPendingPrefixes.add (prefix);
+        m_aPendingPrefixes.add (uri);
+        m_aEnvelope.startPrefixMapping (prefix, uri);
+      }
+    }
+
+    public void endPrefixMapping (final String prefix) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.endPrefixMapping (prefix);
+      else
+        m_aEnvelope.endPrefixMapping (prefix);
+    }
+
+    private boolean _isPending (final String prefix)
+    {
+      for (int i = 0; i < m_aPendingPrefixes.size (); i += 2)
+        if (m_aPendingPrefixes.get (i).equals (prefix))
+          return true;
+      return false;
+    }
+
+    public void startElement (final String uri,
+                              final String localName,
+                              final String qName,
+                              final Attributes atts) throws SAXException
+    {
+      if (m_aRecorder != null)
+      {
+        m_nRecordDepth++;
+        m_aRecorder.startElement (uri, localName, qName, atts);
+        return;
+      }
+
+      final boolean isRecord = m_sRecordLocalName.equals (localName) && m_sRecordNamespaceURI.equals (uri);
+      if (isRecord)
+      {
+        m_aRecorder = new SAXEventRecorder ();
+        m_aRecorder.setDocumentLocator (m_aLocator);
+        m_aRecorder.startDocument ();
+        // inform the record verifier about all prefix mappings in scope
+        final Enumeration <?> e = m_aNSMap.getPrefixes ();
+        while (e.hasMoreElements ())
+        {
+          final String prefix = (String) e.nextElement ();
+          if (!"xml".equals (prefix) && !_isPending (prefix))
+            m_aRecorder.startPrefixMapping (prefix, m_aNSMap.getURI (prefix));
+        }
+        final String defaultURI = m_aNSMap.getURI ("");
+        if (defaultURI != null && !_isPending (""))
+          m_aRecorder.startPrefixMapping ("", defaultURI);
+        for (int i = 0; i < m_aPendingPrefixes.size (); i += 2)
+          m_aRecorder.startPrefixMapping (m_aPendingPrefixes.get (i), m_aPendingPrefixes.get (i + 1));
+        m_aRecorder.startElement (uri, localName, qName, atts);
+        m_nRecordDepth = 1;
+      }
+
+      m_aNSMap.pushContext ();
+      for (int i = 0; i < m_aPendingPrefixes.size (); i += 2)
+        m_aNSMap.declarePrefix (m_aPendingPrefixes.get (i), m_aPendingPrefixes.get (i + 1));
+      m_aPendingPrefixes.clear ();
+
+      // the envelope sees record elements without content
+      m_aEnvelope.startElement (uri, localName, qName, atts);
+    }
+
+    public void endElement (final String uri, final String localName, final String qName) throws SAXException
+    {
+      if (m_aRecorder != null)
+      {
+        m_aRecorder.endElement (uri, localName, qName);
+        if (--m_nRecordDepth > 0)
+          return;
+
+        final Enumeration <?> e = m_aNSMap.getPrefixes ();
+        while (e.hasMoreElements ())
+        {
+          final String prefix = (String) e.nextElement ();
+          if (!"xml".equals (prefix))
+            m_aRecorder.endPrefixMapping (prefix);
+        }
+        if (m_aNSMap.getURI ("") != null)
+          m_aRecorder.endPrefixMapping ("");
+        m_aRecorder.endDocument ();
+        _submit (m_aRecorder);
+        m_aRecorder = null;
+      }
+
+      m_aNSMap.popContext ();
+      m_aEnvelope.endElement (uri, localName, qName);
+    }
+
+    private void _submit (final SAXEventRecorder recorder) throws SAXException
+    {
+      try
+      {
+        m_aInFlight.acquire ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new VerifierException (ex);
+      }
+      try
+      {
+        m_aExecutor.execute ( () -> _validateRecord (recorder));
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        m_aInFlight.release ();
+        throw new VerifierException (ex);
+      }
+    }
+
+    private void _validateRecord (final SAXEventRecorder recorder)
+    {
+      try
+      {
+        final Verifier verifier = m_aRecordVerifiers.borrow ();
+        boolean reusable = false;
+        try
+        {
+          verifier.setErrorHandler (m_aRecordErrorHandler);
+          final VerifierHandler handler = verifier.getVerifierHandler ();
+          recorder.replay (handler);
+          if (!handler.isValid ())
+            m_aRecordsValid.set (false);
+          reusable = true;
+        }
+        finally
+        {
+          if (reusable)
+            m_aRecordVerifiers.release (verifier);
+          else
+            m_aRecordVerifiers.invalidate (verifier);
+        }
+      }
+      catch (final Throwable t)
+      {
+        m_aFailure.compareAndSet (null, t);
+      }
+      finally
+      {
+        m_aInFlight.release ();
+      }
+    }
+
+    public void characters (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.characters (ch, start, length);
+      else
+        m_aEnvelope.characters (ch, start, length);
+    }
+
+    public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.ignorableWhitespace (ch, start, length);
+      else
+        m_aEnvelope.ignorableWhitespace (ch, start, length);
+    }
+
+    public void processingInstruction (final String target, final String data) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.processingInstruction (target, data);
+      else
+        m_aEnvelope.processingInstruction (target, data);
+    }
+
+    public void skippedEntity (final String name) throws SAXException
+    {
+      if (m_aRecorder != null)
+        m_aRecorder.skippedEntity (name);
+      else
+        m_aEnvelope.skippedEntity (name);
+    }
+  }
+
+  private static ErrorHandler _createCollector (final ConcurrentLinkedQueue <Reported> reported,
+                                                final AtomicLong sequence)
+  {
+    return new ErrorHandler ()
+    {
+      public void warning (final SAXParseException e)
+      {
+        reported.add (new Reported (ValidationReport.Severity.WARNING, e, sequence.incrementAndGet ()));
+      }
+
+      public void error (final SAXParseException e)
+      {
+        reported.add (new Reported (ValidationReport.Severity.ERROR, e, sequence.incrementAndGet ()));
+      }
+
+      public void fatalError (final SAXParseException e)
+      {
+        reported.add (new Reported (ValidationReport.Severity.FATAL_ERROR, e, sequence.incrementAndGet ()));
+      }
+    };
+  }
+
+  /**
+   * validates an XML document.
+   * <p>
+   * A well-formedness error of the document is recorded as fatal error in the
+   * report instead of being thrown.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @return the report with all errors and warnings of the envelope and the
+   *         records. Never <code>null</code>.
+   */
+  public ValidationReport verify (final InputSource source) throws SAXException, IOException
+  {
+    final Verifier envelopeVerifier;
+    try
+    {
+      envelopeVerifier = m_aEnvelopeSchema.newVerifier ();
+    }
+    catch (final VerifierConfigurationException ex)
+    {
+      throw new VerifierException (ex);
+    }
+
+    final ConcurrentLinkedQueue <Reported> reported = new ConcurrentLinkedQueue <> ();
+    final AtomicLong sequence = new AtomicLong ();
+    final ErrorHandler collector = _createCollector (reported, sequence);
+    envelopeVerifier.setErrorHandler (collector);
+
+    final VerifierHandler envelopeHandler = envelopeVerifier.getVerifierHandler ();
+    final Splitter splitter = new Splitter (envelopeHandler, collector);
+    final XMLReaderProvider provider = _getReaderProvider (envelopeVerifier);
+    final XMLReader reader = provider.obtainXMLReader ();
+    boolean wellFormed = true;
+    try
+    {
+      reader.setErrorHandler (collector);
+      reader.setContentHandler (splitter);
+      reader.parse (source);
+    }
+    catch (final SAXParseException ex)
+    {
+      // not well-formed - usually already reported as fatal error
+      wellFormed = false;
+      boolean known = false;
+      for (final Reported r : reported)
+        if (r.m_eSeverity == ValidationReport.Severity.FATAL_ERROR)
+          known = true;
+      if (!known)
+        collector.fatalError (ex);
+    }
+    finally
+    {
+      provider.releaseXMLReader (reader);
+      if (envelopeVerifier instanceof VerifierImpl)
+        ((VerifierImpl) envelopeVerifier).close ();
+    }
+    try
+    {
+      splitter.awaitRecords ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new VerifierException (ex);
+    }
+
+    final Throwable failure = splitter.m_aFailure.get ();
+    if (failure instanceof SAXException)
+      throw (SAXException) failure;
+    if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if (failure instanceof Error)
+      throw (Error) failure;
+    if (failure != null)
+      throw new VerifierException ((Exception) failure);
+
+    // merge the issues in document order
+    final List <Reported> sorted = new ArrayList <> (reported);
+    sorted.sort (DOCUMENT_ORDER);
+    final ValidationReport report = new ValidationReport (Integer.MAX_VALUE);
+    final ErrorHandler reportCollector = report.getCollector ();
+    for (final Reported r : sorted)
+      switch (r.m_eSeverity)
+      {
+        case WARNING:
+          reportCollector.warning (r.m_aException);
+          break;
+        case ERROR:
+          reportCollector.error (r.m_aException);
+          break;
+        default:
+          reportCollector.fatalError (r.m_aException);
+          break;
+      }
+    report.setResult (wellFormed && envelopeHandler.isValid () && splitter.m_aRecordsValid.get (), false);
+    return report;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.iso_relax.verifier.VerifierException;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Passes the SAX events of one document from the calling thread to handlers
+ * that run as tasks on an executor.
+ * <p>
+ * The events are recorded in batches (see {@link SAXEventRecorder}). Every
+ * full batch is published to one bounded queue per handler, from which a
+ * worker task replays it. If a worker falls behind, the calling thread waits
+ * until there is space in its queue. After the first exception of a handler,
+ * its worker only drains its queue, so that the calling thread is not blocked.
+ * <p>
+ * A pipeline is used for a single document: it is either ended with
+ * {@link #end()} or stopped with {@link #abort()}.
+ */
+final class SAXBatchPipeline
+{
+  /** marks the end of the events */
+  private static final SAXEventRecorder END = new SAXEventRecorder ();
+  /** marks a document that was not processed up to its end */
+  private static final SAXEventRecorder ABORTED = new SAXEventRecorder ();
+
+  private final int m_nBatchSize;
+  private final Locator m_aLocator;
+  private final BlockingQueue <SAXEventRecorder> [] m_aQueues;
+  private final AtomicInteger m_aRunning;
+  private final AtomicReference <Throwable> m_aFailure = new AtomicReference <> ();
+  private final CompletableFuture <Void> m_aCompletion = new CompletableFuture <> ();
+  private volatile boolean m_bAborted;
+  private SAXEventRecorder m_aBatch;
+
+  /**
+   * starts one worker task per handler.
+   *
+   * @param handlers
+   *        the handlers that receive the events. May neither be
+   *        <code>null</code> nor empty.
+   * @param executor
+   *        the executor that runs the workers. It must be able to run all of
+   *        them at the same time.
+   * @param batchSize
+   *        the number of events per batch.
+   * @param queueCapacity
+   *        the number of batches a worker may fall behind.
+   * @param locator
+   *        the locator of the parser. May be <code>null</code>.
+   */
+  @SuppressWarnings ({ "unchecked", "rawtypes" })
+  SAXBatchPipeline (final ContentHandler [] handlers,
+                    final Executor executor,
+                    final int batchSize,
+                    final int queueCapacity,
+                    final Locator locator)
+  {
+    m_nBatchSize = batchSize;
+    m_aLocator = locator;
+    m_aRunning = new AtomicInteger (handlers.length);
+    m_aQueues = new BlockingQueue [handlers.length];
+    for (int i = 0; i < handlers.length; i++)
+    {
+      final ContentHandler handler = handlers[i];
+      final BlockingQueue <SAXEventRecorder> queue = new ArrayBlockingQueue <> (queueCapacity);
+      m_aQueues[i] = queue;
+      executor.execute ( () -> _runWorker (handler, queue));
+    }
+    _newBatch ();
+  }
+
+  private void _runWorker (final ContentHandler handler, final BlockingQueue <SAXEventRecorder> queue)
+  {
+    try
+    {
+      boolean failed = false;
+      while (true)
+      {
+        final SAXEventRecorder batch = queue.take ();
+        if (batch == END || batch == ABORTED)
+          break;
+        if (!failed)
+          try
+          {
+            batch.replay (handler);
+          }
+          catch (final Throwable t)
+          {
+            m_aFailure.compareAndSet (null, t);
+            failed = true;
+          }
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      m_aFailure.compareAndSet (null, ex);
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      if (m_aRunning.decrementAndGet () == 0)
+        _complete ();
+    }
+  }
+
+  private void _complete ()
+  {
+    final Throwable failure = m_aFailure.get ();
+    if (m_bAborted)
+      m_aCompletion.cancel (false);
+    else
+      if (failure != null)
+        m_aCompletion.completeExceptionally (failure);
+      else
+        m_aCompletion.complete (null);
+  }
+
+  private void _newBatch ()
+  {
+    m_aBatch = new SAXEventRecorder ();
+    m_aBatch.setDocumentLocator (m_aLocator);
+  }
+
+  private void _publish (final SAXEventRecorder batch) throws SAXException
+  {
+    try
+    {
+      for (final BlockingQueue <SAXEventRecorder> queue : m_aQueues)
+        queue.put (batch);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new VerifierException (ex);
+    }
+  }
+
+  /**
+   * @return the handler that records the next event. It changes whenever a
+   *         batch was published, so it must not be kept.
+   */
+  ContentHandler getBatch ()
+  {
+    return m_aBatch;
+  }
+
+  /**
+   * publishes the current batch if it is full. Must be called after every
+   * event passed to {@link #getBatch()}.
+   */
+  void afterEvent () throws SAXException
+  {
+    if (m_aBatch.getEventCount () >= m_nBatchSize)
+    {
+      _publish (m_aBatch);
+      _newBatch ();
+    }
+  }
+
+  /**
+   * publishes the remaining events and the end of the document. Does not wait
+   * for the workers. If the calling thread is interrupted meanwhile, the
+   * workers are aborted.
+   */
+  void end () throws SAXException
+  {
+    try
+    {
+      _publish (m_aBatch);
+      _publish (END);
+      m_aBatch = null;
+    }
+    catch (final SAXException ex)
+    {
+      abort ();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the future that completes when all workers have finished: normally
+   *         after {@link #end()}, exceptionally with the first exception of a
+   *         handler, or cancelled after {@link #abort()}.
+   */
+  CompletableFuture <Void> getCompletion ()
+  {
+    return m_aCompletion;
+  }
+
+  /**
+   * waits until all workers have finished and rethrows the first exception of
+   * a handler.
+   */
+  void await () throws SAXException
+  {
+    try
+    {
+      m_aCompletion.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      throw new VerifierException (ex);
+    }
+    catch (final ExecutionException ex)
+    {
+      final Throwable failure = ex.getCause ();
+      if (failure instanceof SAXException)
+        throw (SAXException) failure;
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      throw new VerifierException ((Exception) failure);
+    }
+  }
+
+  /**
+   * stops the workers of a document that was not processed up to its end, and
+   * waits until the handlers are not used anymore.
+   */
+  void abort ()
+  {
+    m_bAborted = true;
+    // pending batches are not needed anymore, which makes space for the marker
+    for (final BlockingQueue <SAXEventRecorder> queue : m_aQueues)
+    {
+      queue.clear ();
+      queue.offer (ABORTED);
+    }
+    m_aBatch = null;
+    try
+    {
+      m_aCompletion.get ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    catch (final ExecutionException | CancellationException ex)
+    {
+      // the result of an aborted document is not needed
+    }
+  }
+}
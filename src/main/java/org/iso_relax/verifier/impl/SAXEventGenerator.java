@@ -20,6 +20,7 @@
 package org.iso_relax.verifier.impl;
 
 import java.util.Enumeration;
+import java.util.function.Predicate;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.CDATASection;
@@ -64,7 +65,7 @@ import jp.gr.xml.relax.sax.LexicalHandlerBase;
  */
 public class SAXEventGenerator implements IDOMVisitor
 {
-  private final Node m_aRoot;
+  private Node m_aRoot;
   private boolean m_bNeedDocumentEmulation = true;
 
   private String m_sSystemID;
@@ -75,6 +76,11 @@ public class SAXEventGenerator implements IDOMVisitor
   private LexicalHandler m_aLexical;
   private ErrorHandler m_aError;
   private final NamespaceSupport m_aNamespace = new NamespaceSupport ();
+  // reused for all elements and nodes, as SAX handlers must not keep them
+  private final AttributesImpl m_aAttributes = new AttributesImpl ();
+  private char [] m_aCharBuffer = new char [256];
+  private LocatorImpl m_aLocator;
+  private Predicate <? super Element> m_aContentSkipFilter;
 
   public SAXEventGenerator (final Node node)
   {
@@ -88,6 +94,20 @@ public class SAXEventGenerator implements IDOMVisitor
     m_aDecl = new DeclHandlerBase ();
   }
 
+  /**
+   * prepares this generator for generating the events of another DOM tree.
+   * All handlers and settings are kept, so one generator can be reused for
+   * any number of trees without allocating new buffers.
+   *
+   * @param node
+   *        the new root node.
+   */
+  public void reset (final Node node)
+  {
+    m_aRoot = node;
+    m_aNamespace.reset ();
+  }
+
   public void setSystemID (final String id)
   {
     m_sSystemID = id;
@@ -103,6 +123,19 @@ public class SAXEventGenerator implements IDOMVisitor
     m_bNeedDocumentEmulation = emulate;
   }
 
+  /**
+   * sets a filter for elements whose content is not reported. For these
+   * elements only the start and end tag are reported, as if the element was
+   * empty.
+   *
+   * @param filter
+   *        the filter. May be <code>null</code> to report all content.
+   */
+  public void setContentSkipFilter (final Predicate <? super Element> filter)
+  {
+    m_aContentSkipFilter = filter;
+  }
+
   public void setDTDHandler (final DTDHandler dtd)
   {
     m_aDTD = dtd;
@@ -201,7 +234,8 @@ public class SAXEventGenerator implements IDOMVisitor
         localName = qName;
 
       final NamedNodeMap attrMap = element.getAttributes ();
-      final AttributesImpl attrs = new AttributesImpl ();
+      final AttributesImpl attrs = m_aAttributes;
+      attrs.clear ();
       final int size = attrMap.getLength ();
       for (int i = 0; i < size; i++)
       {
@@ -248,6 +282,12 @@ public class SAXEventGenerator implements IDOMVisitor
     {
       _errorReport (e);
     }
+    if (m_aContentSkipFilter != null && m_aContentSkipFilter.test (element))
+    {
+      // the children are not visited, and neither is leave
+      leave (element);
+      return (false);
+    }
     return (true);
   }
 
@@ -256,7 +296,7 @@ public class SAXEventGenerator implements IDOMVisitor
     try
     {
       final String data = text.getData ();
-      m_aContent.characters (data.toCharArray (), 0, data.length ());
+      m_aContent.characters (_toChars (data), 0, data.length ());
     }
     catch (final SAXException e)
     {
@@ -271,7 +311,7 @@ public class SAXEventGenerator implements IDOMVisitor
     {
       m_aLexical.startCDATA ();
       final String data = cdata.getData ();
-      m_aContent.characters (data.toCharArray (), 0, data.length ());
+      m_aContent.characters (_toChars (data), 0, data.length ());
       m_aLexical.endCDATA ();
     }
     catch (final SAXException e)
@@ -281,6 +321,20 @@ public class SAXEventGenerator implements IDOMVisitor
     return (false);
   }
 
+  /**
+   * copies the string into the shared char buffer.
+   *
+   * @return the buffer, which holds the string at index 0.
+   */
+  private char [] _toChars (final String data)
+  {
+    final int length = data.length ();
+    if (m_aCharBuffer.length < length)
+      m_aCharBuffer = new char [Math.max (length, m_aCharBuffer.length * 2)];
+    data.getChars (0, length, m_aCharBuffer, 0);
+    return m_aCharBuffer;
+  }
+
   public boolean enter (final EntityReference entityRef)
   {
     try
@@ -312,7 +366,7 @@ public class SAXEventGenerator implements IDOMVisitor
     try
     {
       final String data = comment.getData ();
-      m_aLexical.comment (data.toCharArray (), 0, data.length ());
+      m_aLexical.comment (_toChars (data), 0, data.length ());
     }
     catch (final SAXException e)
     {
@@ -347,7 +401,9 @@ public class SAXEventGenerator implements IDOMVisitor
 
   private void _locatorEvent ()
   {
-    final LocatorImpl locator = new LocatorImpl ();
+    if (m_aLocator == null)
+      m_aLocator = new LocatorImpl ();
+    final LocatorImpl locator = m_aLocator;
     locator.setSystemId (m_sSystemID);
     locator.setPublicId (m_sPublicID);
     locator.setLineNumber (-1);
@@ -524,6 +580,9 @@ public class SAXEventGenerator implements IDOMVisitor
 
   private void _errorReport (final SAXException e) throws DOMVisitorException
   {
+    // the error that caused the abort was already reported
+    if (e instanceof ValidationAbortedException)
+      throw new DOMVisitorException (e);
     try
     {
       SAXParseException parseException;
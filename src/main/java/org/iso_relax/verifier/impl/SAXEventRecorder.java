@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Records SAX events so that they can be replayed to another
+ * {@link ContentHandler} later, possibly on another thread.
+ * <p>
+ * This allows to validate a document against a schema that is only known
+ * after a part of the document was read, or against several schemas one
+ * after the other, without parsing the document again. A recorder can be
+ * attached next to a verifier handler with a {@link ForkContentHandler}.
+ * <p>
+ * The events are stored compactly: every event is encoded as a few ints in
+ * one int array, all character data (text and attribute values) is appended
+ * to one char array, and all names are kept only once in a name table. The
+ * location of every event is recorded as well. While the events are
+ * replayed, the handler receives a {@link Locator} that reports the recorded
+ * location of the current event, so errors are reported at their original
+ * position.
+ * <p>
+ * With a spill threshold, the recorded events are written to a temporary file
+ * whenever the arrays exceed the threshold, so large documents can be
+ * recorded with bounded memory. The file is deleted by {@link #clear()} and
+ * {@link #close()}, so a spilling recorder should be used in a
+ * try-with-resources statement.
+ * <p>
+ * A recorder can be replayed any number of times, also concurrently, but it
+ * must not be modified while it is replayed.
+ */
+public class SAXEventRecorder implements ContentHandler, Closeable
+{
+  private static final int OP_START_DOCUMENT = 1;
+  private static final int OP_END_DOCUMENT = 2;
+  private static final int OP_START_PREFIX_MAPPING = 3;
+  private static final int OP_END_PREFIX_MAPPING = 4;
+  private static final int OP_START_ELEMENT = 5;
+  private static final int OP_END_ELEMENT = 6;
+  private static final int OP_CHARACTERS = 7;
+  private static final int OP_IGNORABLE_WHITESPACE = 8;
+  private static final int OP_PROCESSING_INSTRUCTION = 9;
+  private static final int OP_SKIPPED_ENTITY = 10;
+
+  private final class ReplayLocator implements Locator
+  {
+    private int m_nLineNumber = -1;
+    private int m_nColumnNumber = -1;
+
+    public String getPublicId ()
+    {
+      return m_sPublicId;
+    }
+
+    public String getSystemId ()
+    {
+      return m_sSystemId;
+    }
+
+    public int getLineNumber ()
+    {
+      return m_nLineNumber;
+    }
+
+    public int getColumnNumber ()
+    {
+      return m_nColumnNumber;
+    }
+  }
+
+  private final long m_nSpillThreshold;
+  private final File m_aSpillDirectory;
+
+  private int [] m_aOps = new int [256];
+  private int m_nOps;
+  private char [] m_aChars = new char [1024];
+  private int m_nChars;
+  private final Map <String, Integer> m_aNameIndex = new HashMap <> ();
+  private final List <String> m_aNames = new ArrayList <> ();
+  private int m_nEventCount;
+  private File m_aSpillFile;
+  private DataOutputStream m_aSpillStream;
+  private int m_nSpilledBlocks;
+
+  private Locator m_aLocator;
+  private String m_sPublicId;
+  private String m_sSystemId;
+
+  /**
+   * creates a recorder that keeps all events in memory.
+   */
+  public SAXEventRecorder ()
+  {
+    this (0, null);
+  }
+
+  /**
+   * creates a recorder that writes the events to a temporary file once the
+   * memory used for them exceeds the given threshold.
+   *
+   * @param spillThreshold
+   *        the approximate number of bytes of events kept in memory. A value
+   *        &le; 0 means no limit.
+   * @param spillDirectory
+   *        the directory for the temporary file. May be <code>null</code> for
+   *        the default temporary directory.
+   */
+  public SAXEventRecorder (final long spillThreshold, final File spillDirectory)
+  {
+    m_nSpillThreshold = spillThreshold;
+    m_aSpillDirectory = spillDirectory;
+  }
+
+  /**
+   * @return the number of recorded events.
+   */
+  public int getEventCount ()
+  {
+    return m_nEventCount;
+  }
+
+  /**
+   * @return <code>true</code> if some events were written to the temporary
+   *         file.
+   */
+  public boolean isSpilled ()
+  {
+    return m_aSpillFile != null;
+  }
+
+  /**
+   * removes all recorded events and deletes the temporary file, if any.
+   */
+  public void clear ()
+  {
+    m_nOps = 0;
+    m_nChars = 0;
+    m_aNameIndex.clear ();
+    m_aNames.clear ();
+    m_nEventCount = 0;
+    m_sPublicId = null;
+    m_sSystemId = null;
+    if (m_aSpillFile != null)
+    {
+      try
+      {
+        m_aSpillStream.close ();
+      }
+      catch (final IOException ex)
+      {
+        // nothing more to do with the file
+      }
+      m_aSpillFile.delete ();
+      m_aSpillFile = null;
+      m_aSpillStream = null;
+      m_nSpilledBlocks = 0;
+    }
+  }
+
+  /**
+   * releases the temporary file like {@link #clear()}. The recorder can still
+   * be used afterwards.
+   */
+  public void close ()
+  {
+    clear ();
+  }
+
+  //
+  //
+  // recording
+  //
+  //
+
+  private int _name (final String name)
+  {
+    if (name == null)
+      return -1;
+    final Integer index = m_aNameIndex.get (name);
+    if (index != null)
+      return index.intValue ();
+    final int ret = m_aNames.size ();
+    m_aNames.add (name);
+    m_aNameIndex.put (name, Integer.valueOf (ret));
+    return ret;
+  }
+
+  private void _ensureOps (final int count)
+  {
+    if (m_nOps + count > m_aOps.length)
+    {
+      final int [] ops = new int [Math.max (m_nOps + count, m_aOps.length * 2)];
+      System.arraycopy (m_aOps, 0, ops, 0, m_nOps);
+      m_aOps = ops;
+    }
+  }
+
+  private void _ensureChars (final int count)
+  {
+    if (m_nChars + count > m_aChars.length)
+    {
+      final char [] chars = new char [Math.max (m_nChars + count, m_aChars.length * 2)];
+      System.arraycopy (m_aChars, 0, chars, 0, m_nChars);
+      m_aChars = chars;
+    }
+  }
+
+  /**
+   * appends the given characters to the char pool and their offset and length
+   * to the ops.
+   */
+  private void _chars (final char [] ch, final int start, final int length)
+  {
+    _ensureChars (length);
+    System.arraycopy (ch, start, m_aChars, m_nChars, length);
+    m_aOps[m_nOps++] = m_nChars;
+    m_aOps[m_nOps++] = length;
+    m_nChars += length;
+  }
+
+  private void _chars (final String s)
+  {
+    if (s == null)
+    {
+      m_aOps[m_nOps++] = 0;
+      m_aOps[m_nOps++] = -1;
+      return;
+    }
+    final int length = s.length ();
+    _ensureChars (length);
+    s.getChars (0, length, m_aChars, m_nChars);
+    m_aOps[m_nOps++] = m_nChars;
+    m_aOps[m_nOps++] = length;
+    m_nChars += length;
+  }
+
+  /**
+   * starts a new event.
+   *
+   * @param op
+   *        the opcode
+   * @param operands
+   *        the number of ints that follow
+   */
+  private void _begin (final int op, final int operands)
+  {
+    if (m_nEventCount == 0 && m_aLocator != null)
+    {
+      m_sPublicId = m_aLocator.getPublicId ();
+      m_sSystemId = m_aLocator.getSystemId ();
+    }
+    _ensureOps (3 + operands);
+    m_aOps[m_nOps++] = op;
+    m_aOps[m_nOps++] = m_aLocator == null ? -1 : m_aLocator.getLineNumber ();
+    m_aOps[m_nOps++] = m_aLocator == null ? -1 : m_aLocator.getColumnNumber ();
+    m_nEventCount++;
+  }
+
+  /**
+   * writes the arrays to the temporary file if they became too large. Events
+   * never span two blocks.
+   */
+  private void _end () throws SAXException
+  {
+    if (m_nSpillThreshold <= 0 || m_nOps * 4L + m_nChars * 2L <= m_nSpillThreshold)
+      return;
+    try
+    {
+      if (m_aSpillFile == null)
+      {
+        m_aSpillFile = File.createTempFile ("isorelax-events", ".bin", m_aSpillDirectory);
+        m_aSpillStream = new DataOutputStream (new BufferedOutputStream (Files.newOutputStream (m_aSpillFile.toPath ()),
+                                                                         64 * 1024));
+      }
+      final ByteBuffer buffer = ByteBuffer.allocate (Math.max (m_nOps * 4, m_nChars * 2));
+      m_aSpillStream.writeInt (m_nOps);
+      m_aSpillStream.writeInt (m_nChars);
+      buffer.asIntBuffer ().put (m_aOps, 0, m_nOps);
+      m_aSpillStream.write (buffer.array (), 0, m_nOps * 4);
+      buffer.asCharBuffer ().put (m_aChars, 0, m_nChars);
+      m_aSpillStream.write (buffer.array (), 0, m_nChars * 2);
+      m_nSpilledBlocks++;
+      m_nOps = 0;
+      m_nChars = 0;
+    }
+    catch (final IOException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  /**
+   * sets the locator that provides the location of the recorded events. It is
+   * not replayed.
+   */
+  public void setDocumentLocator (final Locator locator)
+  {
+    m_aLocator = locator;
+  }
+
+  public void startDocument () throws SAXException
+  {
+    _begin (OP_START_DOCUMENT, 0);
+    _end ();
+  }
+
+  public void endDocument () throws SAXException
+  {
+    _begin (OP_END_DOCUMENT, 0);
+    _end ();
+  }
+
+  public void startPrefixMapping (final String prefix, final String uri) throws SAXException
+  {
+    _begin (OP_START_PREFIX_MAPPING, 2);
+    m_aOps[m_nOps++] = _name (prefix);
+    m_aOps[m_nOps++] = _name (uri);
+    _end ();
+  }
+
+  public void endPrefixMapping (final String prefix) throws SAXException
+  {
+    _begin (OP_END_PREFIX_MAPPING, 1);
+    m_aOps[m_nOps++] = _name (prefix);
+    _end ();
+  }
+
+  public void startElement (final String uri,
+                            final String localName,
+                            final String qName,
+                            final Attributes atts) throws SAXException
+  {
+    final int count = atts.getLength ();
+    _begin (OP_START_ELEMENT, 4 + count * 6);
+    m_aOps[m_nOps++] = _name (uri);
+    m_aOps[m_nOps++] = _name (localName);
+    m_aOps[m_nOps++] = _name (qName);
+    m_aOps[m_nOps++] = count;
+    for (int i = 0; i < count; i++)
+    {
+      m_aOps[m_nOps++] = _name (atts.getURI (i));
+      m_aOps[m_nOps++] = _name (atts.getLocalName (i));
+      m_aOps[m_nOps++] = _name (atts.getQName (i));
+      m_aOps[m_nOps++] = _name (atts.getType (i));
+      _chars (atts.getValue (i));
+    }
+    _end ();
+  }
+
+  public void endElement (final String uri, final String localName, final String qName) throws SAXException
+  {
+    _begin (OP_END_ELEMENT, 3);
+    m_aOps[m_nOps++] = _name (uri);
+    m_aOps[m_nOps++] = _name (localName);
+    m_aOps[m_nOps++] = _name (qName);
+    _end ();
+  }
+
+  public void characters (final char [] ch, final int start, final int length) throws SAXException
+  {
+    _begin (OP_CHARACTERS, 2);
+    _chars (ch, start, length);
+    _end ();
+  }
+
+  public void ignorableWhitespace (final char [] ch, final int start, final int length) throws SAXException
+  {
+    _begin (OP_IGNORABLE_WHITESPACE, 2);
+    _chars (ch, start, length);
+    _end ();
+  }
+
+  public void processingInstruction (final String target, final String data) throws SAXException
+  {
+    _begin (OP_PROCESSING_INSTRUCTION, 3);
+    m_aOps[m_nOps++] = _name (target);
+    _chars (data);
+    _end ();
+  }
+
+  public void skippedEntity (final String name) throws SAXException
+  {
+    _begin (OP_SKIPPED_ENTITY, 1);
+    m_aOps[m_nOps++] = _name (name);
+    _end ();
+  }
+
+  //
+  //
+  // replaying
+  //
+  //
+
+  /**
+   * replays all recorded events to the given handler. The handler first
+   * receives a locator via <code>setDocumentLocator</code>.
+   *
+   * @param handler
+   *        the handler to receive the events.
+   */
+  public void replay (final ContentHandler handler) throws SAXException
+  {
+    final ReplayLocator locator = new ReplayLocator ();
+    final AttributesImpl atts = new AttributesImpl ();
+    handler.setDocumentLocator (locator);
+
+    if (m_aSpillFile != null)
+      try
+      {
+        m_aSpillStream.flush ();
+        try (final DataInputStream dis = new DataInputStream (new BufferedInputStream (Files.newInputStream (m_aSpillFile.toPath ()),
+                                                                                          64 * 1024)))
+        {
+          int [] ops = new int [0];
+          char [] chars = new char [0];
+          byte [] bytes = new byte [0];
+          for (int block = 0; block < m_nSpilledBlocks; block++)
+          {
+            final int nOps = dis.readInt ();
+            final int nChars = dis.readInt ();
+            if (ops.length < nOps)
+              ops = new int [nOps];
+            if (chars.length < nChars)
+              chars = new char [nChars];
+            if (bytes.length < Math.max (nOps * 4, nChars * 2))
+              bytes = new byte [Math.max (nOps * 4, nChars * 2)];
+            dis.readFully (bytes, 0, nOps * 4);
+            ByteBuffer.wrap (bytes, 0, nOps * 4).asIntBuffer ().get (ops, 0, nOps);
+            dis.readFully (bytes, 0, nChars * 2);
+            ByteBuffer.wrap (bytes, 0, nChars * 2).asCharBuffer ().get (chars, 0, nChars);
+            _replay (ops, nOps, chars, handler, locator, atts);
+          }
+        }
+      }
+      catch (final IOException ex)
+      {
+        throw new SAXException (ex);
+      }
+
+    _replay (m_aOps, m_nOps, m_aChars, handler, locator, atts);
+  }
+
+  private String _getName (final int index)
+  {
+    return index < 0 ? null : m_aNames.get (index);
+  }
+
+  private void _replay (final int [] ops,
+                        final int nOps,
+                        final char [] chars,
+                        final ContentHandler handler,
+                        final ReplayLocator locator,
+                        final AttributesImpl atts) throws SAXException
+  {
+    int i = 0;
+    while (i < nOps)
+    {
+      final int op = ops[i++];
+      locator.m_nLineNumber = ops[i++];
+      locator.m_nColumnNumber = ops[i++];
+      switch (op)
+      {
+        case OP_START_DOCUMENT:
+          handler.startDocument ();
+          break;
+        case OP_END_DOCUMENT:
+          handler.endDocument ();
+          break;
+        case OP_START_PREFIX_MAPPING:
+          handler.startPrefixMapping (_getName (ops[i]), _getName (ops[i + 1]));
+          i += 2;
+          break;
+        case OP_END_PREFIX_MAPPING:
+          handler.endPrefixMapping (_getName (ops[i++]));
+          break;
+        case OP_START_ELEMENT:
+        {
+          final String uri = _getName (ops[i++]);
+          final String localName = _getName (ops[i++]);
+          final String qName = _getName (ops[i++]);
+          final int count = ops[i++];
+          atts.clear ();
+          for (int a = 0; a < count; a++)
+          {
+            atts.addAttribute (_getName (ops[i]),
+                               _getName (ops[i + 1]),
+                               _getName (ops[i + 2]),
+                               _getName (ops[i + 3]),
+                               new String (chars, ops[i + 4], ops[i + 5]));
+            i += 6;
+          }
+          handler.startElement (uri, localName, qName, atts);
+          break;
+        }
+        case OP_END_ELEMENT:
+          handler.endElement (_getName (ops[i]), _getName (ops[i + 1]), _getName (ops[i + 2]));
+          i += 3;
+          break;
+        case OP_CHARACTERS:
+          handler.characters (chars, ops[i], ops[i + 1]);
+          i += 2;
+          break;
+        case OP_IGNORABLE_WHITESPACE:
+          handler.ignorableWhitespace (chars, ops[i], ops[i + 1]);
+          i += 2;
+          break;
+        case OP_PROCESSING_INSTRUCTION:
+        {
+          final int length = ops[i + 2];
+          handler.processingInstruction (_getName (ops[i]), length < 0 ? null : new String (chars, ops[i + 1], length));
+          i += 3;
+          break;
+        }
+        case OP_SKIPPED_ENTITY:
+          handler.skippedEntity (_getName (ops[i++]));
+          break;
+        default:
+          throw new IllegalStateException ("Corrupt event recording: opcode " + op);
+      }
+    }
+  }
+}
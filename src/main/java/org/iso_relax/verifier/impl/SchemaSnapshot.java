@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UTFDataFormatException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import org.iso_relax.verifier.ContentDigest;
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.VerifierConfigurationException;
+import org.iso_relax.verifier.VerifierFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads and writes precompiled {@link Schema} objects from and to a compact
+ * binary snapshot, so that an application can skip the compilation of a
+ * grammar on startup.
+ * <p>
+ * Only schemas that implement {@link Serializable} can be written to a
+ * snapshot. A snapshot consists of a header (magic number, format version,
+ * schema class name, and a token that identifies the schema source) followed
+ * by the serialized schema and its CRC32 checksum. A snapshot is considered
+ * stale if any of the header values or the checksum do not match, in which
+ * case {@link #read(InputStream, String, ClassLoader)} returns
+ * <code>null</code>.
+ * <p>
+ * Snapshots are deserialized with Java serialization, so they must only be
+ * read from trusted locations.
+ */
+public final class SchemaSnapshot
+{
+  private static final int MAGIC = 0x49525353;
+  /** The current snapshot format version */
+  public static final int FORMAT_VERSION = 1;
+  /** The size of the chunks in which the serialized schema is read */
+  private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+  private static final class SchemaObjectInputStream extends ObjectInputStream
+  {
+    private final ClassLoader m_aClassLoader;
+
+    SchemaObjectInputStream (final InputStream in, final ClassLoader classLoader) throws IOException
+    {
+      super (in);
+      m_aClassLoader = classLoader;
+    }
+
+    @Override
+    protected Class <?> resolveClass (final ObjectStreamClass desc) throws IOException, ClassNotFoundException
+    {
+      if (m_aClassLoader != null)
+        try
+        {
+          return Class.forName (desc.getName (), false, m_aClassLoader);
+        }
+        catch (final ClassNotFoundException ex)
+        {
+          // fall through
+        }
+      return super.resolveClass (desc);
+    }
+  }
+
+  private SchemaSnapshot ()
+  {}
+
+  /**
+   * writes a snapshot of the given schema.
+   *
+   * @param schema
+   *        the compiled schema. May not be <code>null</code>.
+   * @param sourceToken
+   *        a token that identifies the schema source, e.g. a key created by
+   *        {@link ContentDigest#createDigestKey(InputSource)}. It is compared
+   *        when the snapshot is read. May not be <code>null</code>.
+   * @param os
+   *        the stream to write to. It is not closed.
+   * @return <code>false</code> if the schema is not serializable, in which
+   *         case nothing was written.
+   */
+  public static boolean write (final Schema schema, final String sourceToken, final OutputStream os) throws IOException
+  {
+    if (!(schema instanceof Serializable))
+      return false;
+
+    final ByteArrayOutputStream payload = new ByteArrayOutputStream ();
+    try (final ObjectOutputStream oos = new ObjectOutputStream (payload))
+    {
+      oos.writeObject (schema);
+    }
+    catch (final ObjectStreamException ex)
+    {
+      // some part of the schema is not serializable
+      return false;
+    }
+    final byte [] bytes = payload.toByteArray ();
+    final CRC32 crc = new CRC32 ();
+    crc.update (bytes, 0, bytes.length);
+
+    final DataOutputStream dos = new DataOutputStream (os);
+    dos.writeInt (MAGIC);
+    dos.writeInt (FORMAT_VERSION);
+    dos.writeUTF (schema.getClass ().getName ());
+    dos.writeUTF (sourceToken);
+    dos.writeInt (bytes.length);
+    dos.writeLong (crc.getValue ());
+    dos.write (bytes);
+    dos.flush ();
+    return true;
+  }
+
+  /**
+   * reads a snapshot written by {@link #write(Schema, String, OutputStream)}.
+   *
+   * @param is
+   *        the stream to read from. It is not closed.
+   * @param expectedSourceToken
+   *        the token of the current schema source. May not be
+   *        <code>null</code>.
+   * @param classLoader
+   *        the class loader used to resolve the schema classes. May be
+   *        <code>null</code>.
+   * @return <code>null</code> if the snapshot is stale, corrupt, or was written
+   *         by an incompatible version.
+   */
+  public static Schema read (final InputStream is,
+                             final String expectedSourceToken,
+                             final ClassLoader classLoader) throws IOException
+  {
+    try
+    {
+      final DataInputStream dis = new DataInputStream (is);
+      if (dis.readInt () != MAGIC || dis.readInt () != FORMAT_VERSION)
+        return null;
+      final String className = dis.readUTF ();
+      if (!expectedSourceToken.equals (dis.readUTF ()))
+        return null;
+      final int length = dis.readInt ();
+      final long checksum = dis.readLong ();
+      if (length < 0)
+        return null;
+
+      // the length is not trusted before the checksum is verified
+      final byte [] bytes = _readPayload (dis, length);
+      if (bytes == null)
+        return null;
+      final CRC32 crc = new CRC32 ();
+      crc.update (bytes, 0, bytes.length);
+      if (crc.getValue () != checksum)
+        return null;
+
+      try (final ObjectInputStream ois = new SchemaObjectInputStream (new ByteArrayInputStream (bytes), classLoader))
+      {
+        final Object o = ois.readObject ();
+        if (!(o instanceof Schema) || !o.getClass ().getName ().equals (className))
+          return null;
+        return (Schema) o;
+      }
+    }
+    catch (final EOFException | UTFDataFormatException | ObjectStreamException | ClassNotFoundException ex)
+    {
+      // truncated snapshot or incompatible classes
+      return null;
+    }
+  }
+
+  /**
+   * reads the given number of bytes in chunks, so that a corrupt length does
+   * not allocate more memory than the stream actually contains.
+   *
+   * @return <code>null</code> if the stream ends early.
+   */
+  private static byte [] _readPayload (final DataInputStream is, final int length) throws IOException
+  {
+    if (length <= READ_CHUNK_SIZE)
+    {
+      final byte [] bytes = new byte [length];
+      // throws an EOFException if the stream ends early
+      is.readFully (bytes);
+      return bytes;
+    }
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream (READ_CHUNK_SIZE);
+    final byte [] buf = new byte [READ_CHUNK_SIZE];
+    int remaining = length;
+    while (remaining > 0)
+    {
+      final int n = is.read (buf, 0, Math.min (remaining, buf.length));
+      if (n < 0)
+        return null;
+      bos.write (buf, 0, n);
+      remaining -= n;
+    }
+    return bos.toByteArray ();
+  }
+
+  /**
+   * loads a schema from a snapshot file, or compiles it and writes the
+   * snapshot file if the snapshot is missing or stale.
+   * <p>
+   * The source is read completely to compute its digest, which is stored in
+   * the snapshot to detect changes of the schema source. Changes of schema
+   * files that are only included or imported by the source are not detected,
+   * so the snapshot file should be deleted whenever those change.
+   * <p>
+   * If the snapshot file can not be written, e.g. because its directory is
+   * read-only, the compiled schema is returned anyway.
+   *
+   * @param factory
+   *        the factory used for compilation. May not be <code>null</code>.
+   * @param source
+   *        InputSource of a schema file. If it has neither a byte stream nor a
+   *        character stream, its system ID is opened as URL.
+   * @param snapshotFile
+   *        the snapshot file. Its parent directory must exist.
+   * @return the compiled schema. Never <code>null</code>.
+   */
+  public static Schema loadOrCompile (final VerifierFactory factory,
+                                      final InputSource source,
+                                      final File snapshotFile) throws VerifierConfigurationException,
+                                                               SAXException,
+                                                               IOException
+  {
+    if (source.getByteStream () == null && source.getCharacterStream () == null && source.getSystemId () != null)
+    {
+      try (final InputStream is = new URL (source.getSystemId ()).openStream ())
+      {
+        source.setByteStream (is);
+        return _loadOrCompile (factory, source, snapshotFile);
+      }
+    }
+    return _loadOrCompile (factory, source, snapshotFile);
+  }
+
+  private static Schema _loadOrCompile (final VerifierFactory factory,
+                                        final InputSource source,
+                                        final File snapshotFile) throws VerifierConfigurationException,
+                                                                 SAXException,
+                                                                 IOException
+  {
+    final String token = ContentDigest.createDigestKey (source);
+    if (token == null)
+      throw new IllegalArgumentException ("The schema source has no content");
+
+    if (snapshotFile.isFile ())
+    {
+      try (final InputStream is = new BufferedInputStream (Files.newInputStream (snapshotFile.toPath ())))
+      {
+        final Schema schema = read (is, token, factory.getClass ().getClassLoader ());
+        if (schema != null)
+          return schema;
+      }
+      catch (final IOException ex)
+      {
+        // unreadable snapshot - recompile and overwrite it
+      }
+    }
+
+    final Schema schema = factory.compileSchemaCached (source);
+    if (schema instanceof Serializable)
+      try
+      {
+        _writeAtomically (schema, token, snapshotFile.toPath ());
+      }
+      catch (final IOException ex)
+      {
+        // e.g. a read-only directory - the snapshot is only an optimization
+      }
+    return schema;
+  }
+
+  private static void _writeAtomically (final Schema schema, final String token, final Path target) throws IOException
+  {
+    final Path dir = target.toAbsolutePath ().getParent ();
+    final Path tmp = Files.createTempFile (dir, target.getFileName ().toString (), ".tmp");
+    try
+    {
+      final boolean written;
+      try (final OutputStream os = new BufferedOutputStream (Files.newOutputStream (tmp)))
+      {
+        written = write (schema, token, os);
+      }
+      if (written)
+        try
+        {
+          Files.move (tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final AtomicMoveNotSupportedException ex)
+        {
+          Files.move (tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    finally
+    {
+      try
+      {
+        Files.deleteIfExists (tmp);
+      }
+      catch (final IOException ex)
+      {
+        // nothing more to do with the file
+      }
+    }
+  }
+}
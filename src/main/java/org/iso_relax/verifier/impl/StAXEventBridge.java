@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Generates SAX events from StAX events, so that a {@link ContentHandler} like
+ * a {@link org.iso_relax.verifier.VerifierHandler} can consume a document that
+ * is read with StAX.
+ * <p>
+ * Events can either be bridged one by one with
+ * {@link #bridgeEvent(XMLStreamReader)} (which is what
+ * {@link ValidatingXMLStreamReader} does), or all at once with
+ * {@link #bridge(XMLStreamReader)}. If bridging does not start at the
+ * beginning of a document, the bridge emulates the
+ * <code>startDocument</code>/<code>endDocument</code> events around the
+ * current element. As the handler does not see the namespace declarations of
+ * the enclosing document then, the bridge reports the in-scope mappings of all
+ * prefixes used by the element names and attributes, taken from the namespace
+ * context of the reader. The standard namespace context can not enumerate its
+ * prefixes, so prefixes that only occur in content (e.g. in QName valued
+ * attributes) must be declared within the bridged element.
+ */
+public class StAXEventBridge implements Locator
+{
+  private final ContentHandler m_aHandler;
+  private final AttributesImpl m_aAttributes = new AttributesImpl ();
+  private char [] m_aCharBuffer = new char [256];
+  private Location m_aLocation;
+  private boolean m_bStarted;
+  private boolean m_bEmulatedDocument;
+  private boolean m_bEnded;
+  private int m_nDepth;
+  /** the namespace declarations within an emulated document */
+  private NamespaceSupport m_aNSSupport;
+  /** the reported mappings of the enclosing document */
+  private final List <String> m_aOuterPrefixes = new ArrayList <> ();
+  /** the number of reported outer mappings per open element */
+  private int [] m_aOuterMarks = new int [16];
+
+  /**
+   * @param handler
+   *        the handler to receive the SAX events. May not be
+   *        <code>null</code>.
+   */
+  public StAXEventBridge (final ContentHandler handler)
+  {
+    if (handler == null)
+      throw new IllegalArgumentException ("handler");
+    m_aHandler = handler;
+  }
+
+  /**
+   * @return <code>true</code> if the document (or emulated document) has ended.
+   */
+  public boolean isEnded ()
+  {
+    return m_bEnded;
+  }
+
+  private void _startDocument (final boolean emulated) throws SAXException
+  {
+    m_bStarted = true;
+    m_bEmulatedDocument = emulated;
+    if (emulated)
+      m_aNSSupport = new NamespaceSupport ();
+    m_aHandler.setDocumentLocator (this);
+    m_aHandler.startDocument ();
+  }
+
+  private void _endDocument () throws SAXException
+  {
+    m_bEnded = true;
+    m_aHandler.endDocument ();
+  }
+
+  private static String _nn (final String s)
+  {
+    return s == null ? "" : s;
+  }
+
+  private static String _qName (final String prefix, final String localName)
+  {
+    return prefix == null || prefix.isEmpty () ? localName : prefix + ':' + localName;
+  }
+
+  /**
+   * opens the namespace scope of an element in an emulated document.
+   */
+  private void _pushScope ()
+  {
+    if (m_nDepth == m_aOuterMarks.length)
+    {
+      final int [] marks = new int [m_nDepth * 2];
+      System.arraycopy (m_aOuterMarks, 0, marks, 0, m_nDepth);
+      m_aOuterMarks = marks;
+    }
+    m_aOuterMarks[m_nDepth] = m_aOuterPrefixes.size ();
+    m_aNSSupport.pushContext ();
+  }
+
+  /**
+   * reports the mapping of the given prefix of the enclosing document, if it
+   * was neither declared within the emulated document nor reported yet.
+   */
+  private void _startOuterMapping (final NamespaceContext context, final String prefix) throws SAXException
+  {
+    final String p = _nn (prefix);
+    if ("xml".equals (p) || m_aOuterPrefixes.contains (p) || m_aNSSupport.getURI (p) != null)
+      return;
+    final String uri = context.getNamespaceURI (p);
+    if (uri == null || uri.isEmpty ())
+      return;
+    m_aOuterPrefixes.add (p);
+    m_aHandler.startPrefixMapping (p, uri);
+  }
+
+  /**
+   * closes the namespace scope of an element in an emulated document, after
+   * its <code>endElement</code> event. m_nDepth must already be decremented.
+   */
+  private void _popScope () throws SAXException
+  {
+    final int mark = m_aOuterMarks[m_nDepth];
+    for (int i = m_aOuterPrefixes.size () - 1; i >= mark; i--)
+      m_aHandler.endPrefixMapping (m_aOuterPrefixes.remove (i));
+    m_aNSSupport.popContext ();
+  }
+
+  /**
+   * passes the current event of the reader to the handler.
+   *
+   * @param reader
+   *        the reader. Its position is not changed.
+   */
+  public void bridgeEvent (final XMLStreamReader reader) throws SAXException
+  {
+    if (m_bEnded)
+      return;
+    m_aLocation = reader.getLocation ();
+
+    final int eventType = reader.getEventType ();
+    if (!m_bStarted)
+    {
+      if (eventType == XMLStreamConstants.START_DOCUMENT)
+      {
+        _startDocument (false);
+        return;
+      }
+      if (eventType != XMLStreamConstants.START_ELEMENT)
+        return;
+      _startDocument (true);
+    }
+
+    switch (eventType)
+    {
+      case XMLStreamConstants.START_ELEMENT:
+      {
+        final int nsCount = reader.getNamespaceCount ();
+        final int attrCount = reader.getAttributeCount ();
+        if (m_bEmulatedDocument)
+        {
+          _pushScope ();
+          for (int i = 0; i < nsCount; i++)
+            m_aNSSupport.declarePrefix (_nn (reader.getNamespacePrefix (i)), _nn (reader.getNamespaceURI (i)));
+          final NamespaceContext context = reader.getNamespaceContext ();
+          _startOuterMapping (context, reader.getPrefix ());
+          for (int i = 0; i < attrCount; i++)
+          {
+            final String prefix = reader.getAttributePrefix (i);
+            // unprefixed attributes are not in the default namespace
+            if (prefix != null && !prefix.isEmpty ())
+              _startOuterMapping (context, prefix);
+          }
+        }
+        for (int i = 0; i < nsCount; i++)
+          m_aHandler.startPrefixMapping (_nn (reader.getNamespacePrefix (i)), _nn (reader.getNamespaceURI (i)));
+
+        m_aAttributes.clear ();
+        for (int i = 0; i < attrCount; i++)
+        {
+          final String localName = reader.getAttributeLocalName (i);
+          m_aAttributes.addAttribute (_nn (reader.getAttributeNamespace (i)),
+                                      localName,
+                                      _qName (reader.getAttributePrefix (i), localName),
+                                      reader.getAttributeType (i),
+                                      reader.getAttributeValue (i));
+        }
+        final String localName = reader.getLocalName ();
+        m_nDepth++;
+        m_aHandler.startElement (_nn (reader.getNamespaceURI ()),
+                                 localName,
+                                 _qName (reader.getPrefix (), localName),
+                                 m_aAttributes);
+        break;
+      }
+      case XMLStreamConstants.END_ELEMENT:
+      {
+        final String localName = reader.getLocalName ();
+        m_aHandler.endElement (_nn (reader.getNamespaceURI ()), localName, _qName (reader.getPrefix (), localName));
+        final int nsCount = reader.getNamespaceCount ();
+        for (int i = 0; i < nsCount; i++)
+          m_aHandler.endPrefixMapping (_nn (reader.getNamespacePrefix (i)));
+        m_nDepth--;
+        if (m_bEmulatedDocument)
+        {
+          _popScope ();
+          if (m_nDepth == 0)
+            _endDocument ();
+        }
+        break;
+      }
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+        m_aHandler.characters (reader.getTextCharacters (), reader.getTextStart (), reader.getTextLength ());
+        break;
+      case XMLStreamConstants.SPACE:
+        m_aHandler.ignorableWhitespace (reader.getTextCharacters (), reader.getTextStart (), reader.getTextLength ());
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        m_aHandler.processingInstruction (reader.getPITarget (), _nn (reader.getPIData ()));
+        break;
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        m_aHandler.skippedEntity (reader.getLocalName ());
+        break;
+      case XMLStreamConstants.END_DOCUMENT:
+        _endDocument ();
+        break;
+      default:
+        // comments and DTDs are not reported to a ContentHandler
+        break;
+    }
+  }
+
+  /**
+   * passes all events from the current one up to the end of the document (or
+   * the end of the current element) to the handler.
+   *
+   * @param reader
+   *        the reader. It is positioned on the last bridged event afterwards.
+   */
+  public void bridge (final XMLStreamReader reader) throws SAXException
+  {
+    try
+    {
+      bridgeEvent (reader);
+      while (!m_bEnded && reader.hasNext ())
+      {
+        reader.next ();
+        bridgeEvent (reader);
+      }
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  private void _characters (final Characters characters) throws SAXException
+  {
+    final String data = characters.getData ();
+    final int length = data.length ();
+    if (m_aCharBuffer.length < length)
+      m_aCharBuffer = new char [Math.max (length, m_aCharBuffer.length * 2)];
+    data.getChars (0, length, m_aCharBuffer, 0);
+    if (characters.isIgnorableWhiteSpace ())
+      m_aHandler.ignorableWhitespace (m_aCharBuffer, 0, length);
+    else
+      m_aHandler.characters (m_aCharBuffer, 0, length);
+  }
+
+  /**
+   * passes one event to the handler.
+   *
+   * @param event
+   *        the event.
+   */
+  public void bridgeEvent (final XMLEvent event) throws SAXException
+  {
+    if (m_bEnded)
+      return;
+    m_aLocation = event.getLocation ();
+
+    if (!m_bStarted)
+    {
+      if (event.isStartDocument ())
+      {
+        _startDocument (false);
+        return;
+      }
+      if (!event.isStartElement ())
+        return;
+      _startDocument (true);
+    }
+
+    switch (event.getEventType ())
+    {
+      case XMLStreamConstants.START_ELEMENT:
+      {
+        final StartElement startElement = event.asStartElement ();
+        if (m_bEmulatedDocument)
+        {
+          _pushScope ();
+          for (final Iterator <?> it = startElement.getNamespaces (); it.hasNext ();)
+          {
+            final Namespace ns = (Namespace) it.next ();
+            m_aNSSupport.declarePrefix (_nn (ns.getPrefix ()), _nn (ns.getNamespaceURI ()));
+          }
+          final NamespaceContext context = startElement.getNamespaceContext ();
+          _startOuterMapping (context, startElement.getName ().getPrefix ());
+          for (final Iterator <?> it = startElement.getAttributes (); it.hasNext ();)
+          {
+            final String prefix = ((Attribute) it.next ()).getName ().getPrefix ();
+            if (prefix != null && !prefix.isEmpty ())
+              _startOuterMapping (context, prefix);
+          }
+        }
+        for (final Iterator <?> it = startElement.getNamespaces (); it.hasNext ();)
+        {
+          final Namespace ns = (Namespace) it.next ();
+          m_aHandler.startPrefixMapping (_nn (ns.getPrefix ()), _nn (ns.getNamespaceURI ()));
+        }
+
+        m_aAttributes.clear ();
+        for (final Iterator <?> it = startElement.getAttributes (); it.hasNext ();)
+        {
+          final Attribute attr = (Attribute) it.next ();
+          final QName name = attr.getName ();
+          m_aAttributes.addAttribute (_nn (name.getNamespaceURI ()),
+                                      name.getLocalPart (),
+                                      _qName (name.getPrefix (), name.getLocalPart ()),
+                                      attr.getDTDType () == null ? "CDATA" : attr.getDTDType (),
+                                      attr.getValue ());
+        }
+        final QName name = startElement.getName ();
+        m_nDepth++;
+        m_aHandler.startElement (_nn (name.getNamespaceURI ()),
+                                 name.getLocalPart (),
+                                 _qName (name.getPrefix (), name.getLocalPart ()),
+                                 m_aAttributes);
+        break;
+      }
+      case XMLStreamConstants.END_ELEMENT:
+      {
+        final EndElement endElement = event.asEndElement ();
+        final QName name = endElement.getName ();
+        m_aHandler.endElement (_nn (name.getNamespaceURI ()),
+                               name.getLocalPart (),
+                               _qName (name.getPrefix (), name.getLocalPart ()));
+        for (final Iterator <?> it = endElement.getNamespaces (); it.hasNext ();)
+          m_aHandler.endPrefixMapping (_nn (((Namespace) it.next ()).getPrefix ()));
+        m_nDepth--;
+        if (m_bEmulatedDocument)
+        {
+          _popScope ();
+          if (m_nDepth == 0)
+            _endDocument ();
+        }
+        break;
+      }
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        _characters (event.asCharacters ());
+        break;
+      case XMLStreamConstants.PROCESSING_INSTRUCTION:
+      {
+        final ProcessingInstruction pi = (ProcessingInstruction) event;
+        m_aHandler.processingInstruction (pi.getTarget (), _nn (pi.getData ()));
+        break;
+      }
+      case XMLStreamConstants.ENTITY_REFERENCE:
+        m_aHandler.skippedEntity (((EntityReference) event).getName ());
+        break;
+      case XMLStreamConstants.END_DOCUMENT:
+        _endDocument ();
+        break;
+      default:
+        // comments and DTDs are not reported to a ContentHandler
+        break;
+    }
+  }
+
+  /**
+   * passes all events up to the end of the document (or the end of the first
+   * element, if the reader was not positioned at the start of a document) to
+   * the handler.
+   *
+   * @param reader
+   *        the reader.
+   */
+  public void bridge (final XMLEventReader reader) throws SAXException
+  {
+    try
+    {
+      while (!m_bEnded && reader.hasNext ())
+        bridgeEvent (reader.nextEvent ());
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new SAXException (ex);
+    }
+  }
+
+  //
+  //
+  // Locator
+  //
+  //
+
+  public String getPublicId ()
+  {
+    return m_aLocation == null ? null : m_aLocation.getPublicId ();
+  }
+
+  public String getSystemId ()
+  {
+    return m_aLocation == null ? null : m_aLocation.getSystemId ();
+  }
+
+  public int getLineNumber ()
+  {
+    return m_aLocation == null ? -1 : m_aLocation.getLineNumber ();
+  }
+
+  public int getColumnNumber ()
+  {
+    return m_aLocation == null ? -1 : m_aLocation.getColumnNumber ();
+  }
+}
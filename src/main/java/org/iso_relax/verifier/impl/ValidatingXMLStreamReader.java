@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * A StAX stream reader that validates the document while the application
+ * reads it.
+ * <p>
+ * Every event the application pulls from this reader is passed to a
+ * {@link VerifierHandler} as well, so the document is parsed and validated in
+ * a single pass. Validation errors are reported to the error handler of the
+ * verifier. If the error handler throws an exception, it is thrown as
+ * {@link XMLStreamException} from the method that read the event.
+ * <p>
+ * The result is available via {@link #isValid()} once the application has
+ * read the document up to its end, see {@link #isComplete()}.
+ */
+public class ValidatingXMLStreamReader extends StreamReaderDelegate
+{
+  private final VerifierHandler m_aHandler;
+  private final StAXEventBridge m_aBridge;
+
+  /**
+   * @param reader
+   *        the namespace aware reader to read from. It should be positioned at
+   *        the start of a document or at a start element.
+   * @param verifier
+   *        the verifier to validate with. Its verifier handler is used.
+   */
+  public ValidatingXMLStreamReader (final XMLStreamReader reader, final Verifier verifier) throws SAXException
+  {
+    this (reader, verifier.getVerifierHandler ());
+  }
+
+  /**
+   * @param reader
+   *        the namespace aware reader to read from. It should be positioned at
+   *        the start of a document or at a start element.
+   * @param handler
+   *        the handler to validate with.
+   */
+  public ValidatingXMLStreamReader (final XMLStreamReader reader, final VerifierHandler handler) throws SAXException
+  {
+    super (reader);
+    if (handler == null)
+      throw new IllegalArgumentException ("handler");
+    m_aHandler = handler;
+    m_aBridge = new StAXEventBridge (handler);
+    m_aBridge.bridgeEvent (reader);
+  }
+
+  /**
+   * @return <code>true</code> if the end of the validated document (or
+   *         element) was read.
+   */
+  public boolean isComplete ()
+  {
+    return m_aBridge.isEnded ();
+  }
+
+  /**
+   * @return <b>true</b> if the document was valid.
+   * @throws IllegalStateException
+   *         if the document was not read up to its end yet, see
+   *         {@link #isComplete()}.
+   */
+  public boolean isValid () throws IllegalStateException
+  {
+    if (!isComplete ())
+      throw new IllegalStateException ("The document was not read up to its end");
+    return m_aHandler.isValid ();
+  }
+
+  @Override
+  public int next () throws XMLStreamException
+  {
+    final int eventType = super.next ();
+    try
+    {
+      m_aBridge.bridgeEvent (getParent ());
+    }
+    catch (final SAXException ex)
+    {
+      throw new XMLStreamException (ex.getMessage (), getLocation (), ex);
+    }
+    return eventType;
+  }
+
+  // nextTag and getElementText must not skip events in the parent reader, so
+  // they are implemented on top of next ()
+
+  @Override
+  public int nextTag () throws XMLStreamException
+  {
+    int eventType = next ();
+    while ((eventType == XMLStreamConstants.CHARACTERS && isWhiteSpace ()) ||
+           (eventType == XMLStreamConstants.CDATA && isWhiteSpace ()) ||
+           eventType == XMLStreamConstants.SPACE ||
+           eventType == XMLStreamConstants.PROCESSING_INSTRUCTION ||
+           eventType == XMLStreamConstants.COMMENT)
+      eventType = next ();
+    if (eventType != XMLStreamConstants.START_ELEMENT && eventType != XMLStreamConstants.END_ELEMENT)
+      throw new XMLStreamException ("expected start or end tag", getLocation ());
+    return eventType;
+  }
+
+  @Override
+  public String getElementText () throws XMLStreamException
+  {
+    if (getEventType () != XMLStreamConstants.START_ELEMENT)
+      throw new XMLStreamException ("parser must be on START_ELEMENT to read next text", getLocation ());
+
+    final StringBuilder sb = new StringBuilder ();
+    int eventType = next ();
+    while (eventType != XMLStreamConstants.END_ELEMENT)
+    {
+      switch (eventType)
+      {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          sb.append (getText ());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        case XMLStreamConstants.COMMENT:
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException ("unexpected end of document when reading element text content",
+                                        getLocation ());
+        case XMLStreamConstants.START_ELEMENT:
+          throw new XMLStreamException ("element text content may not contain START_ELEMENT", getLocation ());
+        default:
+          throw new XMLStreamException ("Unexpected event type " + eventType, getLocation ());
+      }
+      eventType = next ();
+    }
+    return sb.toString ();
+  }
+}
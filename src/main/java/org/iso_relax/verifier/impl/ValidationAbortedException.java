@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import org.iso_relax.verifier.VerifierException;
+import org.xml.sax.SAXException;
+
+/**
+ * Thrown from an error handler to stop the parsing of a document as soon as
+ * the validation result is known.
+ * <p>
+ * No stack trace is captured, because this exception is used for control flow
+ * only and is caught by {@link VerifierImpl}.
+ */
+public class ValidationAbortedException extends VerifierException
+{
+  public ValidationAbortedException (final String message)
+  {
+    super (message);
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace ()
+  {
+    return this;
+  }
+
+  /**
+   * checks whether the given exception is or wraps a
+   * {@link ValidationAbortedException}. Parsers may wrap exceptions thrown by
+   * handlers.
+   */
+  public static boolean isAborted (final Throwable t)
+  {
+    Throwable cur = t;
+    for (int i = 0; cur != null && i < 16; i++)
+    {
+      if (cur instanceof ValidationAbortedException)
+        return true;
+      Throwable next = cur.getCause ();
+      if (next == null && cur instanceof SAXException)
+        next = ((SAXException) cur).getException ();
+      if (next == cur)
+        break;
+      cur = next;
+    }
+    return false;
+  }
+}
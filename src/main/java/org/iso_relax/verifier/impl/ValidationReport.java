@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXParseException;
+
+/**
+ * The result of one validation with all reported errors and warnings.
+ * <p>
+ * The errors are kept as lightweight {@link Issue} objects that only hold the
+ * message and the location, not the exception and its stack trace.
+ *
+ * @see VerifierImpl#verifyWithReport(org.xml.sax.InputSource, int)
+ */
+public class ValidationReport
+{
+  /**
+   * The severity of an {@link Issue}, modeled after the methods of
+   * {@link ErrorHandler}.
+   */
+  public enum Severity
+  {
+    WARNING,
+    ERROR,
+    FATAL_ERROR
+  }
+
+  /**
+   * A single error or warning.
+   */
+  public static final class Issue
+  {
+    private final Severity m_eSeverity;
+    private final String m_sMessage;
+    private final String m_sSystemId;
+    private final int m_nLineNumber;
+    private final int m_nColumnNumber;
+
+    public Issue (final Severity severity,
+                  final String message,
+                  final String systemId,
+                  final int lineNumber,
+                  final int columnNumber)
+    {
+      m_eSeverity = severity;
+      m_sMessage = message;
+      m_sSystemId = systemId;
+      m_nLineNumber = lineNumber;
+      m_nColumnNumber = columnNumber;
+    }
+
+    public Severity getSeverity ()
+    {
+      return m_eSeverity;
+    }
+
+    public String getMessage ()
+    {
+      return m_sMessage;
+    }
+
+    /**
+     * @return the system ID of the entity the issue was found in. May be
+     *         <code>null</code>.
+     */
+    public String getSystemId ()
+    {
+      return m_sSystemId;
+    }
+
+    /**
+     * @return the 1-based line number, or -1 if unknown.
+     */
+    public int getLineNumber ()
+    {
+      return m_nLineNumber;
+    }
+
+    /**
+     * @return the 1-based column number, or -1 if unknown.
+     */
+    public int getColumnNumber ()
+    {
+      return m_nColumnNumber;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return m_eSeverity + " " + m_sSystemId + "(" + m_nLineNumber + ":" + m_nColumnNumber + "): " + m_sMessage;
+    }
+  }
+
+  private final class Collector implements ErrorHandler
+  {
+    public void warning (final SAXParseException e)
+    {
+      if (++m_nWarnings <= m_nMaxIssues)
+        _add (Severity.WARNING, e);
+    }
+
+    public void error (final SAXParseException e)
+    {
+      if (++m_nErrors <= m_nMaxIssues)
+        _add (Severity.ERROR, e);
+    }
+
+    public void fatalError (final SAXParseException e)
+    {
+      if (++m_nFatalErrors <= m_nMaxIssues)
+        _add (Severity.FATAL_ERROR, e);
+    }
+  }
+
+  private final int m_nMaxIssues;
+  private final List <Issue> m_aIssues = new ArrayList <> ();
+  private int m_nWarnings;
+  private int m_nErrors;
+  private int m_nFatalErrors;
+  private boolean m_bValid;
+  private boolean m_bAborted;
+
+  /**
+   * @param maxIssues
+   *        the maximum number of issues to keep per severity. Further issues
+   *        are only counted.
+   */
+  ValidationReport (final int maxIssues)
+  {
+    m_nMaxIssues = maxIssues;
+  }
+
+  private void _add (final Severity severity, final SAXParseException e)
+  {
+    m_aIssues.add (new Issue (severity, e.getMessage (), e.getSystemId (), e.getLineNumber (), e.getColumnNumber ()));
+  }
+
+  /**
+   * @return an error handler that records everything into this report.
+   */
+  ErrorHandler getCollector ()
+  {
+    return new Collector ();
+  }
+
+  void setResult (final boolean valid, final boolean aborted)
+  {
+    m_bValid = valid && !aborted && m_nErrors == 0 && m_nFatalErrors == 0;
+    m_bAborted = aborted;
+  }
+
+  /**
+   * @return <b>true</b> if the document was valid.
+   */
+  public boolean isValid ()
+  {
+    return m_bValid;
+  }
+
+  /**
+   * @return <b>true</b> if the validation was stopped early because the
+   *         maximum number of errors was reached. In that case the counters
+   *         only cover the part of the document validated so far.
+   */
+  public boolean isAborted ()
+  {
+    return m_bAborted;
+  }
+
+  /**
+   * @return the recorded issues in the order they were reported. Never
+   *         <code>null</code>.
+   */
+  public List <Issue> getIssues ()
+  {
+    return Collections.unmodifiableList (m_aIssues);
+  }
+
+  public int getWarningCount ()
+  {
+    return m_nWarnings;
+  }
+
+  public int getErrorCount ()
+  {
+    return m_nErrors;
+  }
+
+  public int getFatalErrorCount ()
+  {
+    return m_nFatalErrors;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return (m_bValid ? "valid" : "invalid") +
+           (m_bAborted ? " (aborted)" : "") +
+           ": " +
+           m_nErrors +
+           " error(s), " +
+           m_nFatalErrors +
+           " fatal error(s), " +
+           m_nWarnings +
+           " warning(s)";
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+import org.iso_relax.verifier.ConcurrentLRUCache;
+import org.iso_relax.verifier.ContentDigest;
+import org.iso_relax.verifier.Schema;
+
+/**
+ * A bounded, thread-safe cache of validation results, so that byte-identical
+ * documents (e.g. retried or duplicate messages) need not be validated again.
+ * <p>
+ * Results are keyed by the identity of the {@link Schema} and a SHA-256 digest
+ * of the document content plus its system ID (see
+ * {@link ContentDigest#createDigestKey(byte[], int, int, String)}). A
+ * cryptographic digest is used so that nobody can craft an invalid document
+ * whose key collides with the one of a valid document.
+ * <p>
+ * Only results of validations that completed normally are cached; a
+ * validation that threw an exception (e.g. because the document is not
+ * well-formed or an I/O error occurred) is repeated every time. When a cached
+ * result is used, no errors are reported to any error handler. Results depend
+ * on external entities only via the system ID, so documents that reference
+ * changing external resources should not be validated through a cache.
+ * <p>
+ * When the cache grows beyond its maximum size, the least recently used
+ * entries are evicted (see {@link ConcurrentLRUCache}). Entries older than the
+ * time to live are treated as missing.
+ *
+ * @see ConcurrentVerifier#setResultCache(VerificationResultCache)
+ */
+public class VerificationResultCache
+{
+  /** The default maximum number of cached results */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /**
+   * The schema is only referenced weakly, so that cached results do not keep a
+   * schema alive that is not used anymore. Results of a collected schema are
+   * never hit again and are evicted eventually.
+   */
+  private static final class Key
+  {
+    private final WeakReference <Schema> m_aSchema;
+    private final int m_nSchemaHash;
+    private final String m_sDigest;
+
+    Key (final Schema schema, final String digest)
+    {
+      m_aSchema = new WeakReference <> (schema);
+      m_nSchemaHash = System.identityHashCode (schema);
+      m_sDigest = digest;
+    }
+
+    @Override
+    public boolean equals (final Object o)
+    {
+      if (o == this)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      final Key rhs = (Key) o;
+      final Schema schema = m_aSchema.get ();
+      return schema != null && schema == rhs.m_aSchema.get () && m_sDigest.equals (rhs.m_sDigest);
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return m_nSchemaHash * 31 + m_sDigest.hashCode ();
+    }
+  }
+
+  private final ConcurrentLRUCache <Key, Boolean> m_aCache;
+
+  /**
+   * @param maxSize
+   *        maximum number of results kept in this cache. Must be &gt; 0.
+   * @param ttl
+   *        the time a result stays valid. A value &le; 0 means forever.
+   * @param unit
+   *        the unit of <code>ttl</code>.
+   */
+  public VerificationResultCache (final int maxSize, final long ttl, final TimeUnit unit)
+  {
+    m_aCache = new ConcurrentLRUCache <> (maxSize, ttl, unit);
+  }
+
+  /**
+   * @return the maximum number of results kept in this cache.
+   */
+  public int getMaxSize ()
+  {
+    return m_aCache.getMaxSize ();
+  }
+
+  /**
+   * @return the number of results currently in this cache, including expired
+   *         ones that were not yet removed.
+   */
+  public int size ()
+  {
+    return m_aCache.size ();
+  }
+
+  /**
+   * looks up a cached result.
+   *
+   * @param schema
+   *        the schema the document was validated against.
+   * @param digestKey
+   *        the content key of the document. May be <code>null</code>.
+   * @return <code>null</code> if no result is cached.
+   */
+  public Boolean get (final Schema schema, final String digestKey)
+  {
+    return m_aCache.get (digestKey == null ? null : new Key (schema, digestKey));
+  }
+
+  /**
+   * caches the result of a validation that completed normally.
+   *
+   * @param schema
+   *        the schema the document was validated against. May not be
+   *        <code>null</code>.
+   * @param digestKey
+   *        the content key of the document. May not be <code>null</code>.
+   * @param valid
+   *        the result of the validation.
+   */
+  public void put (final Schema schema, final String digestKey, final boolean valid)
+  {
+    if (schema == null)
+      throw new IllegalArgumentException ("schema");
+    if (digestKey == null)
+      throw new IllegalArgumentException ("digestKey");
+
+    m_aCache.put (new Key (schema, digestKey), Boolean.valueOf (valid));
+  }
+
+  /**
+   * removes all cached results. The statistics counters are not reset.
+   */
+  public void clear ()
+  {
+    m_aCache.clear ();
+  }
+
+  /**
+   * @return the number of lookups that found a cached result.
+   */
+  public long getHitCount ()
+  {
+    return m_aCache.getHitCount ();
+  }
+
+  /**
+   * @return the number of lookups that did not find a cached result.
+   */
+  public long getMissCount ()
+  {
+    return m_aCache.getMissCount ();
+  }
+
+  /**
+   * @return the number of results that were evicted because the cache was
+   *         full.
+   */
+  public long getEvictionCount ()
+  {
+    return m_aCache.getEvictionCount ();
+  }
+
+  /**
+   * @return the number of results that were removed because they expired.
+   */
+  public long getExpirationCount ()
+  {
+    return m_aCache.getExpirationCount ();
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.Verifier;
+import org.xml.sax.InputSource;
+
+/**
+ * Runs validations of one {@link Schema} as asynchronous tasks.
+ * <p>
+ * This is meant for inputs that are mostly blocked on I/O, like documents
+ * streamed from slow clients. With {@link #newVirtualThreadService(Schema, int)}
+ * every validation runs on its own virtual thread (on Java 21+), so tens of
+ * thousands of concurrent validations do not need a large platform thread
+ * pool. On older Java versions, a fixed pool of at most
+ * {@link #MAX_PLATFORM_THREADS_PER_CPU} daemon threads per CPU is used
+ * instead, so fewer validations may run at the same time there.
+ * <p>
+ * Every task borrows its own verifier (and therefore its own parser) from a
+ * {@link VerifierPool} whose size limits the number of validations running at
+ * the same time; further tasks wait for a free verifier.
+ */
+public class VerificationService implements AutoCloseable
+{
+  /** The maximum number of threads per CPU of the fallback pool */
+  public static final int MAX_PLATFORM_THREADS_PER_CPU = 4;
+
+  private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = _findVirtualThreadFactoryMethod ();
+  private static final AtomicInteger s_aPoolCounter = new AtomicInteger ();
+
+  private final VerifierPool m_aPool;
+  private final ExecutorService m_aExecutor;
+
+  /**
+   * @param schema
+   *        the schema to validate against. May not be <code>null</code>.
+   * @param maxConcurrency
+   *        the maximum number of validations running at the same time. Must be
+   *        &gt; 0.
+   * @param executor
+   *        the executor to run the validations on. It is shut down by
+   *        {@link #close()}.
+   */
+  public VerificationService (final Schema schema, final int maxConcurrency, final ExecutorService executor)
+  {
+    if (executor == null)
+      throw new IllegalArgumentException ("executor");
+    m_aPool = new VerifierPool (schema, maxConcurrency);
+    m_aExecutor = executor;
+  }
+
+  private static Method _findVirtualThreadFactoryMethod ()
+  {
+    try
+    {
+      return Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+    }
+    catch (final NoSuchMethodException ex)
+    {
+      // Java 20 or older
+      return null;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the running JVM supports virtual threads.
+   */
+  public static boolean isVirtualThreadSupported ()
+  {
+    return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+  }
+
+  /**
+   * creates an executor that starts a new virtual thread per task, or a fixed
+   * pool of daemon platform threads if virtual threads are not supported. The
+   * fallback pool has at most {@link #MAX_PLATFORM_THREADS_PER_CPU} threads
+   * per CPU, whatever <code>platformThreads</code> is; further tasks wait in
+   * its queue.
+   *
+   * @param platformThreads
+   *        the desired number of threads of the fallback pool. Must be &gt; 0.
+   */
+  public static ExecutorService newVirtualThreadExecutor (final int platformThreads)
+  {
+    if (NEW_VIRTUAL_THREAD_EXECUTOR != null)
+      try
+      {
+        return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke (null);
+      }
+      catch (final ReflectiveOperationException ex)
+      {
+        // fall through to platform threads
+      }
+    if (platformThreads <= 0)
+      throw new IllegalArgumentException ("platformThreads must be > 0: " + platformThreads);
+    // more threads would only block on the verifier pool, and a thread per
+    // concurrent validation would be far too many platform threads
+    final int threads = Math.min (platformThreads,
+                                  MAX_PLATFORM_THREADS_PER_CPU * Runtime.getRuntime ().availableProcessors ());
+    final int poolId = s_aPoolCounter.incrementAndGet ();
+    final AtomicInteger threadCounter = new AtomicInteger ();
+    final ThreadFactory threadFactory = r -> {
+      final Thread t = new Thread (r, "isorelax-verification-" + poolId + "-" + threadCounter.incrementAndGet ());
+      t.setDaemon (true);
+      return t;
+    };
+    return Executors.newFixedThreadPool (threads, threadFactory);
+  }
+
+  /**
+   * creates a service that runs each validation on a virtual thread.
+   *
+   * @param schema
+   *        the schema to validate against. May not be <code>null</code>.
+   * @param maxConcurrency
+   *        the maximum number of validations running at the same time. Must be
+   *        &gt; 0.
+   * @see #newVirtualThreadExecutor(int)
+   */
+  public static VerificationService newVirtualThreadService (final Schema schema, final int maxConcurrency)
+  {
+    return new VerificationService (schema, maxConcurrency, newVirtualThreadExecutor (maxConcurrency));
+  }
+
+  /**
+   * @return the pool of verifiers used by this service. Useful for its
+   *         statistics.
+   */
+  public VerifierPool getVerifierPool ()
+  {
+    return m_aPool;
+  }
+
+  /**
+   * validates an XML document asynchronously.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @return a future that completes with <b>true</b> if the document is valid
+   *         and <b>false</b> if otherwise, or exceptionally with the exception
+   *         thrown by the validation.
+   */
+  public CompletableFuture <Boolean> submit (final InputSource source)
+  {
+    final CompletableFuture <Boolean> ret = new CompletableFuture <> ();
+    m_aExecutor.execute ( () -> {
+      try
+      {
+        final Verifier verifier = m_aPool.borrow ();
+        final boolean valid;
+        try
+        {
+          valid = verifier.verify (source);
+        }
+        catch (final Throwable t)
+        {
+          // the verifier may be in an unknown state
+          m_aPool.invalidate (verifier);
+          throw t;
+        }
+        // the verifier handler is reset by the next startDocument
+        m_aPool.release (verifier);
+        ret.complete (Boolean.valueOf (valid));
+      }
+      catch (final Throwable t)
+      {
+        ret.completeExceptionally (t);
+      }
+    });
+    return ret;
+  }
+
+  /**
+   * shuts down the executor and waits for running validations to complete.
+   * If the calling thread is interrupted while waiting, this returns early
+   * with the interrupt status set.
+   */
+  public void close ()
+  {
+    m_aExecutor.shutdown ();
+    try
+    {
+      m_aExecutor.awaitTermination (Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+}
@@ -19,12 +19,20 @@
  */
 package org.iso_relax.verifier.impl;
 
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 import org.iso_relax.verifier.Verifier;
 import org.iso_relax.verifier.VerifierFilter;
 import org.iso_relax.verifier.VerifierHandler;
 import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.XMLFilterImpl;
@@ -47,24 +55,169 @@ import org.xml.sax.helpers.XMLFilterImpl;
  * <p>
  * Also, usually you may want to override <code>setErrorHandler</code> method so
  * that your <code>VerifierHandler</code> will send errors to that handler.
+ * <p>
+ * By default every event is validated before it is passed on. In the
+ * asynchronous mode (see {@link #setAsyncExecutor(Executor)}) the events are
+ * recorded in batches (see {@link SAXEventRecorder}) and passed on
+ * immediately, while a background task validates the batches. The result is
+ * available via {@link #getValidity()} after <code>endDocument</code>, and
+ * {@link #isValid()} waits for it.
  *
  * @version $Id: VerifierFilterImpl.java,v 1.5 2003/05/30 23:46:33 kkawa Exp $
  * @author <a href="mailto:kohsuke.kawaguchi@sun.com">Kohsuke KAWAGUCHI</a>
  */
 public class VerifierFilterImpl extends XMLFilterImpl implements VerifierFilter
 {
+  /** The number of events per batch in the asynchronous mode */
+  private static final int ASYNC_BATCH_SIZE = 512;
+  /** The number of batches the validation may fall behind */
+  private static final int ASYNC_QUEUE_CAPACITY = 64;
+
   private final Verifier m_aVerifier;
   private final VerifierHandler m_aCore;
 
+  private Executor m_aAsyncExecutor;
+  private Locator m_aLocator;
+  /** passes the events to the core in the asynchronous mode */
+  private SAXBatchPipeline m_aPipeline;
+  private CompletableFuture <Boolean> m_aResult;
+
   public VerifierFilterImpl (final Verifier aVerifier) throws SAXException
   {
     m_aVerifier = aVerifier;
     m_aCore = m_aVerifier.getVerifierHandler ();
   }
 
+  /**
+   * enables or disables the asynchronous mode for the following documents.
+   * <p>
+   * In the asynchronous mode the validation of a document runs as a task on
+   * the given executor, so the error handler is called from that task. If the
+   * validation falls behind by more than a few thousand events, the parsing
+   * thread waits for it.
+   *
+   * @param executor
+   *        the executor for the validation tasks, or <code>null</code> to
+   *        validate synchronously.
+   */
+  public void setAsyncExecutor (final Executor executor)
+  {
+    m_aAsyncExecutor = executor;
+  }
+
+  /**
+   * @return the executor of the asynchronous mode, or <code>null</code> if the
+   *         validation is synchronous.
+   */
+  public Executor getAsyncExecutor ()
+  {
+    return m_aAsyncExecutor;
+  }
+
+  /**
+   * @return the result of the current or last document that was validated
+   *         asynchronously, or <code>null</code> if it was validated
+   *         synchronously. The future completes after the
+   *         <code>endDocument</code> event was validated.
+   */
+  public CompletableFuture <Boolean> getValidity ()
+  {
+    return m_aResult;
+  }
+
+  /**
+   * checks if the document was valid. In the asynchronous mode, this waits
+   * until the validation has finished.
+   *
+   * @return <b>true</b> if the document was valid, <b>false</b> if not, or if
+   *         the asynchronous validation failed with an exception.
+   */
   public boolean isValid ()
   {
-    return m_aCore.isValid ();
+    final CompletableFuture <Boolean> result = m_aResult;
+    if (result == null)
+      return m_aCore.isValid ();
+    try
+    {
+      return result.join ().booleanValue ();
+    }
+    catch (final CancellationException ex)
+    {
+      return false;
+    }
+    catch (final CompletionException ex)
+    {
+      final Throwable cause = ex.getCause ();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      // e.g. the error handler stopped the validation
+      return false;
+    }
+  }
+
+  private void _startAsync ()
+  {
+    final VerifierHandler core = m_aCore;
+    final CompletableFuture <Boolean> result = new CompletableFuture <> ();
+    m_aPipeline = new SAXBatchPipeline (new ContentHandler [] { core },
+                                        m_aAsyncExecutor,
+                                        ASYNC_BATCH_SIZE,
+                                        ASYNC_QUEUE_CAPACITY,
+                                        m_aLocator);
+    m_aPipeline.getCompletion ().whenComplete ( (v, t) -> {
+      if (t == null)
+        result.complete (Boolean.valueOf (core.isValid ()));
+      else
+        if (t instanceof CancellationException)
+          result.cancel (false);
+        else
+          result.completeExceptionally (t);
+    });
+    m_aResult = result;
+  }
+
+  /**
+   * @return the handler that receives the next event to validate: the core or
+   *         the current batch.
+   */
+  private ContentHandler _target ()
+  {
+    return m_aPipeline != null ? m_aPipeline.getBatch () : m_aCore;
+  }
+
+  private void _afterEvent () throws SAXException
+  {
+    if (m_aPipeline != null)
+      m_aPipeline.afterEvent ();
+  }
+
+  /**
+   * stops the asynchronous validation of a document that was not processed
+   * up to its end, and waits until the core is not used anymore.
+   */
+  private void _abortAsync ()
+  {
+    if (m_aPipeline != null)
+    {
+      m_aPipeline.abort ();
+      m_aPipeline = null;
+    }
+  }
+
+  @Override
+  public void parse (final InputSource input) throws SAXException, IOException
+  {
+    try
+    {
+      super.parse (input);
+    }
+    finally
+    {
+      // does nothing if the document was complete
+      _abortAsync ();
+    }
   }
 
   @Override
@@ -92,35 +245,51 @@ public class VerifierFilterImpl extends XMLFilterImpl implements VerifierFilter
   @Override
   public void setDocumentLocator (final Locator locator)
   {
-    m_aCore.setDocumentLocator (locator);
+    m_aLocator = locator;
+    // in the asynchronous mode, the core receives the locators of the batches
+    if (m_aAsyncExecutor == null)
+      m_aCore.setDocumentLocator (locator);
     super.setDocumentLocator (locator);
   }
 
   @Override
   public void startDocument () throws SAXException
   {
-    m_aCore.startDocument ();
+    _abortAsync ();
+    if (m_aAsyncExecutor != null)
+      _startAsync ();
+    else
+      m_aResult = null;
+    _target ().startDocument ();
     super.startDocument ();
   }
 
   @Override
   public void endDocument () throws SAXException
   {
-    m_aCore.endDocument ();
+    _target ().endDocument ();
+    if (m_aPipeline != null)
+    {
+      final SAXBatchPipeline pipeline = m_aPipeline;
+      m_aPipeline = null;
+      pipeline.end ();
+    }
     super.endDocument ();
   }
 
   @Override
   public void startPrefixMapping (final String prefix, final String uri) throws SAXException
   {
-    m_aCore.startPrefixMapping (prefix, uri);
+    _target ().startPrefixMapping (prefix, uri);
+    _afterEvent ();
     super.startPrefixMapping (prefix, uri);
   }
 
   @Override
   public void endPrefixMapping (final String prefix) throws SAXException
   {
-    m_aCore.endPrefixMapping (prefix);
+    _target ().endPrefixMapping (prefix);
+    _afterEvent ();
     super.endPrefixMapping (prefix);
   }
 
@@ -130,42 +299,48 @@ public class VerifierFilterImpl extends XMLFilterImpl implements VerifierFilter
                             final String qName,
                             final Attributes attributes) throws SAXException
   {
-    m_aCore.startElement (uri, localName, qName, attributes);
+    _target ().startElement (uri, localName, qName, attributes);
+    _afterEvent ();
     super.startElement (uri, localName, qName, attributes);
   }
 
   @Override
   public void endElement (final String uri, final String localName, final String qName) throws SAXException
   {
-    m_aCore.endElement (uri, localName, qName);
+    _target ().endElement (uri, localName, qName);
+    _afterEvent ();
     super.endElement (uri, localName, qName);
   }
 
   @Override
   public void characters (final char ch[], final int start, final int length) throws SAXException
   {
-    m_aCore.characters (ch, start, length);
+    _target ().characters (ch, start, length);
+    _afterEvent ();
     super.characters (ch, start, length);
   }
 
   @Override
   public void ignorableWhitespace (final char ch[], final int start, final int length) throws SAXException
   {
-    m_aCore.ignorableWhitespace (ch, start, length);
+    _target ().ignorableWhitespace (ch, start, length);
+    _afterEvent ();
     super.ignorableWhitespace (ch, start, length);
   }
 
   @Override
   public void processingInstruction (final String target, final String data) throws SAXException
   {
-    m_aCore.processingInstruction (target, data);
+    _target ().processingInstruction (target, data);
+    _afterEvent ();
     super.processingInstruction (target, data);
   }
 
   @Override
   public void skippedEntity (final String name) throws SAXException
   {
-    m_aCore.skippedEntity (name);
+    _target ().skippedEntity (name);
+    _afterEvent ();
     super.skippedEntity (name);
   }
 }
@@ -19,14 +19,17 @@
  */
 package org.iso_relax.verifier.impl;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.parsers.FactoryConfigurationError;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamReader;
 
 import org.iso_relax.verifier.Verifier;
 import org.iso_relax.verifier.VerifierConfigurationException;
+import org.iso_relax.verifier.VerifierException;
 import org.iso_relax.verifier.VerifierFilter;
 import org.iso_relax.verifier.VerifierHandler;
 import org.w3c.dom.Node;
@@ -48,12 +51,49 @@ import org.xml.sax.XMLReader;
  * the <code>getVerifierHandler</code> method. Please be noted that applications
  * can call the <code>setErrorHandler</code> method after the
  * <code>getVerifierHandler</code> method and that change should take effect.
+ * <p>
+ * A verifier that is not needed anymore should be closed, so that its
+ * XMLReader can be reused by the next verifier (see {@link #close()}).
  *
  * @version $Id: VerifierImpl.java,v 1.4 2003/05/30 23:46:33 kkawa Exp $
  * @author <a href="mailto:kohsuke.kawaguchi@sun.com">Kohsuke KAWAGUCHI</a>
  */
-public abstract class VerifierImpl implements Verifier
+public abstract class VerifierImpl implements Verifier, Closeable
 {
+  /**
+   * a property with the {@link XMLReaderProvider} of this verifier. Setting it
+   * gives the current XMLReader back to the previous provider and obtains a
+   * new one from the given provider.
+   */
+  public static final String PROPERTY_XMLREADER_PROVIDER = "http://www.iso-relax.org/verifier/xmlreader-provider";
+
+  /**
+   * a feature that makes the <code>verify</code> methods stop parsing at the
+   * first validation error and return <b>false</b> immediately. The error is
+   * still reported to the error handler. Disabled by default.
+   */
+  public static final String FEATURE_FAIL_FAST = "http://www.iso-relax.org/verifier/fail-fast";
+
+  /**
+   * a validation run with a temporarily replaced error handler.
+   */
+  @FunctionalInterface
+  private interface IVerification
+  {
+    boolean run () throws SAXException, IOException;
+  }
+
+  /**
+   * <code>null</code> for the default instance of
+   * {@link DefaultXMLReaderProvider}, which is only created on first use, so
+   * that a broken parser configuration does not break the initialization of
+   * this class.
+   */
+  private static volatile XMLReaderProvider s_aDefaultReaderProvider;
+
+  private XMLReaderProvider m_aReaderProvider;
+  /** the provider this verifier was created with, see resetSettings */
+  private final XMLReaderProvider m_aInitialReaderProvider;
   protected XMLReader m_aReader;
   // default error handler must not report any error.
   protected ErrorHandler m_aErrorHandler = new ErrorHandler ()
@@ -69,12 +109,47 @@ public abstract class VerifierImpl implements Verifier
   };
   protected EntityResolver m_aEntityResolver;
   private VerifierFilter m_aFilter;
+  private SAXEventGenerator m_aGenerator;
+  private boolean m_bFailFast;
 
   protected VerifierImpl () throws VerifierConfigurationException
   {
+    try
+    {
+      m_aReaderProvider = getDefaultXMLReaderProvider ();
+    }
+    catch (final FactoryConfigurationError ex)
+    {
+      throw new VerifierConfigurationException ("Failed to create the default XMLReaderProvider: " +
+                                                ex.getMessage ());
+    }
+    m_aInitialReaderProvider = m_aReaderProvider;
     prepareXMLReader ();
   }
 
+  /**
+   * @return the {@link XMLReaderProvider} used by verifiers created from now
+   *         on.
+   */
+  public static XMLReaderProvider getDefaultXMLReaderProvider ()
+  {
+    final XMLReaderProvider provider = s_aDefaultReaderProvider;
+    return provider != null ? provider : DefaultXMLReaderProvider.getDefaultInstance ();
+  }
+
+  /**
+   * Sets the {@link XMLReaderProvider} used by verifiers created from now on.
+   *
+   * @param provider
+   *        the new provider. May not be <code>null</code>.
+   */
+  public static void setDefaultXMLReaderProvider (final XMLReaderProvider provider)
+  {
+    if (provider == null)
+      throw new IllegalArgumentException ("provider");
+    s_aDefaultReaderProvider = provider;
+  }
+
   /**
    * Creates and sets a sole instance of XMLReader which will be used by this
    * verifier.
@@ -83,18 +158,12 @@ public abstract class VerifierImpl implements Verifier
   {
     try
     {
-      final SAXParserFactory factory = SAXParserFactory.newInstance ();
-      factory.setNamespaceAware (true);
-      m_aReader = factory.newSAXParser ().getXMLReader ();
+      m_aReader = m_aReaderProvider.obtainXMLReader ();
     }
     catch (final SAXException e)
     {
       throw new VerifierConfigurationException (e);
     }
-    catch (final ParserConfigurationException pce)
-    {
-      throw new VerifierConfigurationException (pce);
-    }
   }
 
   @SuppressWarnings ("deprecation")
@@ -103,6 +172,8 @@ public abstract class VerifierImpl implements Verifier
 
     if (FEATURE_HANDLER.equals (feature) || FEATURE_FILTER.equals (feature))
       return true;
+    if (FEATURE_FAIL_FAST.equals (feature))
+      return m_bFailFast;
 
     throw new SAXNotRecognizedException (feature);
   }
@@ -110,12 +181,19 @@ public abstract class VerifierImpl implements Verifier
   public void setFeature (final String feature, final boolean value) throws SAXNotRecognizedException,
                                                                      SAXNotSupportedException
   {
+    if (FEATURE_FAIL_FAST.equals (feature))
+    {
+      m_bFailFast = value;
+      return;
+    }
 
     throw new SAXNotRecognizedException (feature);
   }
 
   public Object getProperty (final String property) throws SAXNotRecognizedException, SAXNotSupportedException
   {
+    if (PROPERTY_XMLREADER_PROVIDER.equals (property))
+      return m_aReaderProvider;
 
     throw new SAXNotRecognizedException (property);
   }
@@ -123,6 +201,29 @@ public abstract class VerifierImpl implements Verifier
   public void setProperty (final String property, final Object value) throws SAXNotRecognizedException,
                                                                       SAXNotSupportedException
   {
+    if (PROPERTY_XMLREADER_PROVIDER.equals (property))
+    {
+      if (!(value instanceof XMLReaderProvider))
+        throw new SAXNotSupportedException ("XMLReaderProvider expected for " + property + ": " + value);
+      final XMLReaderProvider provider = (XMLReaderProvider) value;
+      if (provider != m_aReaderProvider)
+      {
+        final XMLReader reader;
+        try
+        {
+          reader = provider.obtainXMLReader ();
+        }
+        catch (final SAXException ex)
+        {
+          throw new SAXNotSupportedException ("Failed to obtain an XMLReader: " + ex.getMessage ());
+        }
+        if (m_aReader != null)
+          m_aReaderProvider.releaseXMLReader (m_aReader);
+        m_aReaderProvider = provider;
+        m_aReader = reader;
+      }
+      return;
+    }
 
     throw new SAXNotRecognizedException (property);
   }
@@ -132,11 +233,56 @@ public abstract class VerifierImpl implements Verifier
     this.m_aErrorHandler = handler;
   }
 
+  /**
+   * @return the error handler that receives the validation errors/warnings.
+   *         Never <code>null</code> unless set explicitly.
+   */
+  public ErrorHandler getErrorHandler ()
+  {
+    return m_aErrorHandler;
+  }
+
   public void setEntityResolver (final EntityResolver resolver)
   {
     this.m_aEntityResolver = resolver;
   }
 
+  /**
+   * resets the error handler, the entity resolver, the features and the
+   * properties of this verifier to the values it was created with, so that it
+   * can be handed to another user (see {@link VerifierPool}). Derived classes
+   * with own features or properties should override this method and call the
+   * super implementation.
+   */
+  public void resetSettings ()
+  {
+    m_aErrorHandler = VerifierPool.SILENT_ERROR_HANDLER;
+    m_aEntityResolver = null;
+    m_bFailFast = false;
+    if (m_aReaderProvider != m_aInitialReaderProvider)
+    {
+      // a new reader is obtained lazily
+      close ();
+      m_aReaderProvider = m_aInitialReaderProvider;
+    }
+  }
+
+  /**
+   * gives the XMLReader of this verifier back to its {@link XMLReaderProvider}.
+   * With the {@link DefaultXMLReaderProvider}, the next verifier created on
+   * the same thread reuses it. If this verifier is used again afterwards, it
+   * obtains a new reader.
+   */
+  public void close ()
+  {
+    final XMLReader reader = m_aReader;
+    if (reader != null)
+    {
+      m_aReader = null;
+      m_aReaderProvider.releaseXMLReader (reader);
+    }
+  }
+
   public boolean verify (final String uri) throws SAXException, IOException
   {
     return verify (new InputSource (uri));
@@ -144,7 +290,25 @@ public abstract class VerifierImpl implements Verifier
 
   public boolean verify (final InputSource source) throws SAXException, IOException
   {
+    if (m_bFailFast)
+      return _verifyAborting (m_aErrorHandler, 1, () -> _verify (source));
+    return _verify (source);
+  }
 
+  private boolean _verify (final InputSource source) throws SAXException, IOException
+  {
+    if (m_aReader == null)
+    {
+      // used again after close
+      try
+      {
+        prepareXMLReader ();
+      }
+      catch (final VerifierConfigurationException ex)
+      {
+        throw new VerifierException (ex);
+      }
+    }
     final VerifierHandler handler = getVerifierHandler ();
 
     m_aReader.setErrorHandler (m_aErrorHandler);
@@ -156,6 +320,103 @@ public abstract class VerifierImpl implements Verifier
     return handler.isValid ();
   }
 
+  /**
+   * runs a validation with an error handler that stops the parsing once
+   * <code>maxErrors</code> errors were reported to the given error handler.
+   * The current error handler is restored afterwards.
+   *
+   * @return <b>false</b> if the validation was stopped, the result of the
+   *         validation otherwise.
+   */
+  private boolean _verifyAborting (final ErrorHandler errorHandler,
+                                   final int maxErrors,
+                                   final IVerification verification) throws SAXException, IOException
+  {
+    final ErrorHandler original = m_aErrorHandler;
+    // use the setter, as derived classes may forward the handler
+    setErrorHandler (new AbortingErrorHandler (errorHandler, maxErrors));
+    try
+    {
+      return verification.run ();
+    }
+    catch (final SAXException ex)
+    {
+      if (ValidationAbortedException.isAborted (ex))
+        return false;
+      throw ex;
+    }
+    finally
+    {
+      setErrorHandler (original);
+    }
+  }
+
+  /**
+   * validates an XML document and returns all reported errors and warnings as
+   * a report, instead of passing them to the error handler.
+   * <p>
+   * A well-formedness error of the document is recorded as fatal error in the
+   * report instead of being thrown.
+   *
+   * @param source
+   *        InputSource of a XML document to verify.
+   * @param maxErrors
+   *        the validation is stopped after this many errors. A value &le; 0
+   *        means no limit.
+   * @return the report. Never <code>null</code>.
+   */
+  public ValidationReport verifyWithReport (final InputSource source, final int maxErrors) throws SAXException,
+                                                                                           IOException
+  {
+    return _verifyWithReport (maxErrors, () -> _verify (source));
+  }
+
+  /**
+   * validates a DOM node and returns all reported errors and warnings as a
+   * report, instead of passing them to the error handler.
+   *
+   * @param node
+   *        the root DOM node of an XML document.
+   * @param maxErrors
+   *        the validation is stopped after this many errors. A value &le; 0
+   *        means no limit.
+   * @return the report. Never <code>null</code>.
+   * @see #verify(Node)
+   */
+  public ValidationReport verifyWithReport (final Node node, final int maxErrors) throws SAXException
+  {
+    try
+    {
+      return _verifyWithReport (maxErrors, () -> _verify (node));
+    }
+    catch (final IOException ex)
+    {
+      // cannot happen for DOM nodes
+      throw new SAXException (ex);
+    }
+  }
+
+  private ValidationReport _verifyWithReport (final int maxErrors,
+                                              final IVerification verification) throws SAXException, IOException
+  {
+    final int limit = maxErrors > 0 ? maxErrors : Integer.MAX_VALUE;
+    final ValidationReport report = new ValidationReport (limit);
+    boolean valid;
+    try
+    {
+      valid = _verifyAborting (report.getCollector (), limit, verification);
+    }
+    catch (final SAXParseException ex)
+    {
+      // not well-formed - already recorded as fatal error
+      if (report.getFatalErrorCount () == 0)
+        report.getCollector ().fatalError (ex);
+      valid = false;
+    }
+    report.setResult (valid, report.getErrorCount () >= limit);
+    return report;
+  }
+
   public boolean verify (final File f) throws SAXException, IOException
   {
     String uri = "file:" + f.getAbsolutePath ();
@@ -168,12 +429,114 @@ public abstract class VerifierImpl implements Verifier
 
   public boolean verify (final Node node) throws SAXException
   {
-    final SAXEventGenerator generator = new SAXEventGenerator (node);
-    // generate startDocument/endDocument events
-    generator.setDocumentEmulation (true);
+    if (m_bFailFast)
+      try
+      {
+        return _verifyAborting (m_aErrorHandler, 1, () -> _verify (node));
+      }
+      catch (final IOException ex)
+      {
+        // cannot happen for DOM nodes
+        throw new SAXException (ex);
+      }
+    return _verify (node);
+  }
+
+  private boolean _verify (final Node node) throws SAXException
+  {
+    // the generator and its buffers are reused for all nodes
+    SAXEventGenerator generator = m_aGenerator;
+    if (generator == null)
+    {
+      generator = new SAXEventGenerator (node);
+      // generate startDocument/endDocument events
+      generator.setDocumentEmulation (true);
+      m_aGenerator = generator;
+    }
+    else
+      generator.reset (node);
     generator.setErrorHandler (m_aErrorHandler);
     final VerifierHandler handler = getVerifierHandler ();
-    generator.makeEvent (handler);
+    try
+    {
+      generator.makeEvent (handler);
+    }
+    finally
+    {
+      // don't keep the tree alive
+      generator.reset (null);
+    }
+    return handler.isValid ();
+  }
+
+  /**
+   * validates an XML document that is read by a StAX stream reader. The events
+   * of the reader are passed directly to the verifier handler, so the document
+   * is not parsed a second time.
+   * <p>
+   * If the reader is positioned at the start of a document, the whole document
+   * is validated. If it is positioned at a start element, only this element
+   * (and its descendants) are validated. The reader is positioned at the last
+   * validated event afterwards.
+   *
+   * @param reader
+   *        a namespace aware reader.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   * @see ValidatingXMLStreamReader
+   */
+  public boolean verify (final XMLStreamReader reader) throws SAXException
+  {
+    if (m_bFailFast)
+      try
+      {
+        return _verifyAborting (m_aErrorHandler, 1, () -> _verify (reader));
+      }
+      catch (final IOException ex)
+      {
+        // cannot happen for StAX readers
+        throw new SAXException (ex);
+      }
+    return _verify (reader);
+  }
+
+  private boolean _verify (final XMLStreamReader reader) throws SAXException
+  {
+    final VerifierHandler handler = getVerifierHandler ();
+    new StAXEventBridge (handler).bridge (reader);
+    return handler.isValid ();
+  }
+
+  /**
+   * validates an XML document that is read by a StAX event reader. The events
+   * of the reader are passed directly to the verifier handler, so the document
+   * is not parsed a second time.
+   * <p>
+   * If the next event of the reader is not the start of a document, the events
+   * up to the end of the next element are validated.
+   *
+   * @param reader
+   *        a namespace aware reader.
+   * @return <b>true</b> if the document is valid. <b>false</b> if otherwise.
+   */
+  public boolean verify (final XMLEventReader reader) throws SAXException
+  {
+    if (m_bFailFast)
+      try
+      {
+        return _verifyAborting (m_aErrorHandler, 1, () -> _verify (reader));
+      }
+      catch (final IOException ex)
+      {
+        // cannot happen for StAX readers
+        throw new SAXException (ex);
+      }
+    return _verify (reader);
+  }
+
+  private boolean _verify (final XMLEventReader reader) throws SAXException
+  {
+    final VerifierHandler handler = getVerifierHandler ();
+    new StAXEventBridge (handler).bridge (reader);
     return handler.isValid ();
   }
 
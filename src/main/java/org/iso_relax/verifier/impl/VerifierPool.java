@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.iso_relax.verifier.Schema;
+import org.iso_relax.verifier.Verifier;
+import org.iso_relax.verifier.VerifierConfigurationException;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A bounded pool of reusable {@link Verifier} objects of one {@link Schema}.
+ * <p>
+ * Creating a verifier is comparatively expensive (e.g. {@link VerifierImpl}
+ * creates a new XMLReader for every instance), whereas a verifier can validate
+ * any number of documents one after the other. This pool hands out at most
+ * <code>maxSize</code> verifiers at the same time; further callers of
+ * {@link #borrow()} wait until a verifier is released.
+ * <p>
+ * Every borrowed verifier must be passed back to either {@link #release}
+ * or {@link #invalidate} exactly once. When a verifier derived from
+ * {@link VerifierImpl} is released, its error handler, entity resolver,
+ * features and properties are reset (see {@link VerifierImpl#resetSettings()}),
+ * so settings of one user never leak to the next one. For other verifiers only
+ * the error handler and the entity resolver are reset, so users of the pool
+ * should not change their features or properties. The state of the verifier
+ * handler is reset by the next <code>startDocument</code> event as usual.
+ * Passing back a verifier that is not currently borrowed from this pool is an
+ * error.
+ * <p>
+ * This class is thread-safe.
+ */
+public class VerifierPool
+{
+  /** An error handler that does not report any error, like the default one */
+  static final ErrorHandler SILENT_ERROR_HANDLER = new ErrorHandler ()
+  {
+    public void warning (final SAXParseException e)
+    {}
+
+    public void error (final SAXParseException e)
+    {}
+
+    public void fatalError (final SAXParseException e)
+    {}
+  };
+
+  /** An entity resolver that lets the parser resolve all entities itself */
+  static final EntityResolver DEFAULT_ENTITY_RESOLVER = (publicId, systemId) -> null;
+
+  private final Schema m_aSchema;
+  private final int m_nMaxSize;
+  private final Semaphore m_aPermits;
+  private final ConcurrentLinkedDeque <Verifier> m_aIdle = new ConcurrentLinkedDeque <> ();
+  /** the verifiers that are currently borrowed, compared by identity */
+  private final Set <Verifier> m_aLent = Collections.synchronizedSet (Collections.newSetFromMap (new IdentityHashMap <> ()));
+
+  private final AtomicLong m_aCreations = new AtomicLong ();
+  private final AtomicLong m_aBorrows = new AtomicLong ();
+  private final AtomicLong m_aWaits = new AtomicLong ();
+  private final AtomicLong m_aWaitNanos = new AtomicLong ();
+  private final AtomicLong m_aInvalidations = new AtomicLong ();
+
+  /**
+   * @param schema
+   *        the schema to create verifiers from. May not be <code>null</code>.
+   * @param maxSize
+   *        the maximum number of verifiers in use at the same time. Must be
+   *        &gt; 0.
+   */
+  public VerifierPool (final Schema schema, final int maxSize)
+  {
+    if (schema == null)
+      throw new IllegalArgumentException ("schema");
+    if (maxSize <= 0)
+      throw new IllegalArgumentException ("maxSize must be > 0: " + maxSize);
+    m_aSchema = schema;
+    m_nMaxSize = maxSize;
+    m_aPermits = new Semaphore (maxSize, true);
+  }
+
+  /**
+   * @return the schema of this pool.
+   */
+  public Schema getSchema ()
+  {
+    return m_aSchema;
+  }
+
+  /**
+   * @return the maximum number of verifiers in use at the same time.
+   */
+  public int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * borrows a verifier, waiting as long as necessary for one to become
+   * available.
+   *
+   * @return a verifier that is exclusively used by the caller until it is
+   *         released. Never <code>null</code>.
+   */
+  public Verifier borrow () throws VerifierConfigurationException, InterruptedException
+  {
+    if (!m_aPermits.tryAcquire ())
+    {
+      m_aWaits.incrementAndGet ();
+      final long start = System.nanoTime ();
+      try
+      {
+        m_aPermits.acquire ();
+      }
+      finally
+      {
+        m_aWaitNanos.addAndGet (System.nanoTime () - start);
+      }
+    }
+    return _take ();
+  }
+
+  /**
+   * borrows a verifier, waiting at most the given time for one to become
+   * available.
+   *
+   * @return <code>null</code> if no verifier became available in time.
+   */
+  public Verifier borrow (final long timeout, final TimeUnit unit) throws VerifierConfigurationException,
+                                                                   InterruptedException
+  {
+    if (!m_aPermits.tryAcquire ())
+    {
+      m_aWaits.incrementAndGet ();
+      final long start = System.nanoTime ();
+      final boolean acquired;
+      try
+      {
+        acquired = m_aPermits.tryAcquire (timeout, unit);
+      }
+      finally
+      {
+        m_aWaitNanos.addAndGet (System.nanoTime () - start);
+      }
+      if (!acquired)
+        return null;
+    }
+    return _take ();
+  }
+
+  private Verifier _take () throws VerifierConfigurationException
+  {
+    m_aBorrows.incrementAndGet ();
+    final Verifier verifier = m_aIdle.pollFirst ();
+    if (verifier != null)
+    {
+      m_aLent.add (verifier);
+      return verifier;
+    }
+
+    try
+    {
+      final Verifier created = m_aSchema.newVerifier ();
+      m_aCreations.incrementAndGet ();
+      m_aLent.add (created);
+      return created;
+    }
+    catch (final VerifierConfigurationException | RuntimeException ex)
+    {
+      m_aPermits.release ();
+      throw ex;
+    }
+  }
+
+  /**
+   * returns a borrowed verifier to the pool.
+   *
+   * @param verifier
+   *        a verifier obtained from this pool. May not be <code>null</code>.
+   * @exception IllegalStateException
+   *            if the verifier is not currently borrowed from this pool, e.g.
+   *            because it was already released.
+   */
+  public void release (final Verifier verifier)
+  {
+    _return (verifier);
+    try
+    {
+      if (verifier instanceof VerifierImpl)
+        ((VerifierImpl) verifier).resetSettings ();
+      else
+      {
+        verifier.setErrorHandler (SILENT_ERROR_HANDLER);
+        verifier.setEntityResolver (DEFAULT_ENTITY_RESOLVER);
+      }
+      m_aIdle.offerFirst (verifier);
+    }
+    finally
+    {
+      m_aPermits.release ();
+    }
+  }
+
+  /**
+   * discards a borrowed verifier instead of returning it to the pool, e.g.
+   * because it is in an unknown state. A new verifier is created on demand.
+   * Verifiers derived from {@link VerifierImpl} are closed.
+   *
+   * @param verifier
+   *        a verifier obtained from this pool.
+   * @exception IllegalStateException
+   *            if the verifier is not currently borrowed from this pool, e.g.
+   *            because it was already released.
+   */
+  public void invalidate (final Verifier verifier)
+  {
+    _return (verifier);
+    m_aInvalidations.incrementAndGet ();
+    try
+    {
+      if (verifier instanceof VerifierImpl)
+        ((VerifierImpl) verifier).close ();
+    }
+    finally
+    {
+      m_aPermits.release ();
+    }
+  }
+
+  private void _return (final Verifier verifier)
+  {
+    if (!m_aLent.remove (verifier))
+      throw new IllegalStateException ("The verifier is not borrowed from this pool: " + verifier);
+  }
+
+  /**
+   * @return the number of verifiers that are currently idle in the pool.
+   */
+  public int getIdleCount ()
+  {
+    return m_aIdle.size ();
+  }
+
+  /**
+   * @return the number of verifiers created by this pool.
+   */
+  public long getCreationCount ()
+  {
+    return m_aCreations.get ();
+  }
+
+  /**
+   * @return the number of successful borrow operations.
+   */
+  public long getBorrowCount ()
+  {
+    return m_aBorrows.get ();
+  }
+
+  /**
+   * @return the number of borrow operations that had to wait.
+   */
+  public long getWaitCount ()
+  {
+    return m_aWaits.get ();
+  }
+
+  /**
+   * @return the total time in nanoseconds that borrow operations waited.
+   */
+  public long getTotalWaitNanos ()
+  {
+    return m_aWaitNanos.get ();
+  }
+
+  /**
+   * @return the number of verifiers discarded via {@link #invalidate}.
+   */
+  public long getInvalidationCount ()
+  {
+    return m_aInvalidations.get ();
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2001-2002, SourceForge ISO-RELAX Project
+ * (ASAMI Tomoharu, Daisuke Okajima, Kohsuke Kawaguchi, and MURATA Makoto)
+ *
+ * Copyright (C) 2016-2026 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iso_relax.verifier.impl;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Supplies the {@link XMLReader} objects that {@link VerifierImpl} uses to
+ * parse documents.
+ * <p>
+ * Implement this interface to reuse a pre-configured parser factory or to plug
+ * in an alternative SAX implementation, and register it with
+ * {@link VerifierImpl#setDefaultXMLReaderProvider(XMLReaderProvider)} or with
+ * the {@link VerifierImpl#PROPERTY_XMLREADER_PROVIDER} property of a single
+ * verifier.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @see DefaultXMLReaderProvider
+ */
+public interface XMLReaderProvider
+{
+  /**
+   * obtains a namespace aware XMLReader for exclusive use by the caller.
+   *
+   * @return a non-null XMLReader.
+   */
+  XMLReader obtainXMLReader () throws SAXException;
+
+  /**
+   * gives back an XMLReader that was obtained from this provider and is no
+   * longer used by the caller, e.g. by {@link VerifierImpl#close()}. The
+   * provider may recycle it.
+   *
+   * @param reader
+   *        the reader to give back. Never <code>null</code>.
+   */
+  default void releaseXMLReader (final XMLReader reader)
+  {}
+}